@@ -0,0 +1,405 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.codegen;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the packet codecs in org.openttd.network.codec from a protocol
+ * descriptor (src/main/protocol/admin.protocol).
+ *
+ * The generated code is straight-line: one read or write call per field, a
+ * bounds check per run of fixed size fields and no reflection. Decoders are
+ * meant to be reused, so decoding allocates nothing but the strings.
+ *
+ * Usage: CodecGenerator &lt;descriptor&gt; &lt;output directory&gt;
+ */
+public class CodecGenerator
+{
+    private static final String PACKAGE = "org.openttd.network.codec";
+    private static final String PREFIX  = "ADMIN_PACKET_";
+
+    private static class Field
+    {
+        final String type;
+        final String name;
+        final int count;
+        final boolean tail;
+
+        Field (String type, String name, int count, boolean tail)
+        {
+            this.type  = type;
+            this.name  = name;
+            this.count = count;
+            this.tail  = tail;
+        }
+
+        boolean isString ()
+        {
+            return this.type.equals("string");
+        }
+
+        /** Size in bytes, the terminating NUL for strings. */
+        int size ()
+        {
+            int size;
+
+            if (this.type.equals("bool") || this.type.equals("uint8") || this.type.equals("string")) {
+                size = 1;
+            } else if (this.type.equals("uint16")) {
+                size = 2;
+            } else if (this.type.equals("uint32")) {
+                size = 4;
+            } else if (this.type.equals("uint64")) {
+                size = 8;
+            } else {
+                throw new IllegalArgumentException("Unknown type " + this.type);
+            }
+
+            return size * this.count;
+        }
+
+        String javaType ()
+        {
+            String t;
+
+            if (this.type.equals("bool")) {
+                t = "boolean";
+            } else if (this.type.equals("uint8") || this.type.equals("uint16")) {
+                t = "int";
+            } else if (this.type.equals("uint32") || this.type.equals("uint64")) {
+                t = "long";
+            } else {
+                t = "String";
+            }
+
+            return (this.count > 1) ? t + "[]" : t;
+        }
+
+        String readCall ()
+        {
+            if (this.type.equals("uint64")) {
+                return "p.readInt64()";
+            }
+
+            return "p.read" + suffix() + "()";
+        }
+
+        String writeCall (String value)
+        {
+            return "p.write" + suffix() + "(" + value + ");";
+        }
+
+        private String suffix ()
+        {
+            return (this.type.equals("bool") || this.type.equals("string")) ? capitalize(this.type) : "U" + this.type.substring(1);
+        }
+    }
+
+    private static class PacketDef
+    {
+        final String type;
+        final List<Field> fields = new ArrayList<Field>();
+
+        PacketDef (String type)
+        {
+            this.type = type;
+        }
+
+        boolean isServer ()
+        {
+            return this.type.startsWith(PREFIX + "SERVER_");
+        }
+
+        boolean hasTail ()
+        {
+            for (Field f : this.fields) {
+                if (f.tail) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        String className ()
+        {
+            StringBuilder sb = new StringBuilder();
+
+            for (String part : this.type.substring(PREFIX.length()).toLowerCase().split("_")) {
+                sb.append(capitalize(part));
+            }
+
+            return sb.append("Codec").toString();
+        }
+
+        int minSize ()
+        {
+            int size = 0;
+
+            for (Field f : this.fields) {
+                size += f.size();
+            }
+
+            return size;
+        }
+    }
+
+    public static void main (String[] args) throws IOException
+    {
+        if (args.length != 2) {
+            System.err.println("Usage: CodecGenerator <descriptor> <output directory>");
+            System.exit(1);
+        }
+
+        File dir = new File(args[1], PACKAGE.replace('.', File.separatorChar));
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+
+        for (PacketDef def : parse(new File(args[0]))) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, def.className() + ".java")), "UTF-8"));
+
+            try {
+                if (def.isServer()) {
+                    writeDecoder(out, def);
+                } else {
+                    writeEncoder(out, def);
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static List<PacketDef> parse (File file) throws IOException
+    {
+        List<PacketDef> packets = new ArrayList<PacketDef>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+        try {
+            PacketDef current = null;
+            boolean tail = false;
+            String line;
+            int lineNo = 0;
+
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+
+                String[] tokens = line.trim().split("\\s+");
+
+                if (tokens[0].length() == 0) {
+                    continue;
+                }
+
+                if (tokens[0].equals("packet") && tokens.length == 2) {
+                    current = new PacketDef(tokens[1]);
+                    tail = false;
+                    packets.add(current);
+                } else if (current == null) {
+                    throw new IOException(file + ":" + lineNo + ": field outside of a packet");
+                } else if (tokens[0].equals("tail") && tokens.length == 1) {
+                    tail = true;
+                } else if (tokens.length == 2) {
+                    String type = tokens[0];
+                    int count = 1;
+                    int bracket = type.indexOf('[');
+
+                    if (bracket > 0) {
+                        count = Integer.parseInt(type.substring(bracket + 1, type.length() - 1));
+                        type = type.substring(0, bracket);
+                    }
+
+                    Field f = new Field(type, tokens[1], count, tail);
+                    f.size(); /* validates the type */
+                    current.fields.add(f);
+                } else {
+                    throw new IOException(file + ":" + lineNo + ": unable to parse '" + line.trim() + "'");
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        return packets;
+    }
+
+    private static void writeHeader (PrintWriter out, String... imports)
+    {
+        out.println("/*");
+        out.println(" * Generated by org.openttd.codegen.CodecGenerator from admin.protocol, do not edit.");
+        out.println(" */");
+        out.println();
+        out.println("package " + PACKAGE + ";");
+        out.println();
+
+        for (String i : imports) {
+            out.println("import " + i + ";");
+        }
+
+        out.println();
+    }
+
+    private static void writeDecoder (PrintWriter out, PacketDef def)
+    {
+        writeHeader(out, "org.openttd.enums.PacketType", "org.openttd.network.Packet");
+
+        out.println("/**");
+        out.println(" * Decoder for " + def.type + ".");
+        out.println(" * Instances are meant to be reused, the fields hold the values of the last decoded Packet.");
+        out.println(" */");
+        out.println("public final class " + def.className());
+        out.println("{");
+        out.println("    public static final PacketType TYPE = PacketType." + def.type + ";");
+        out.println();
+        out.println("    /** Minimum size of the payload in bytes. */");
+        out.println("    public static final int MIN_SIZE = " + def.minSize() + ";");
+        out.println();
+
+        for (Field f : def.fields) {
+            if (f.count > 1) {
+                out.println("    public final " + f.javaType() + " " + f.name + " = new " + f.javaType().replace("[]", "[" + f.count + "]") + ";");
+            } else {
+                out.println("    public " + f.javaType() + " " + f.name + ";");
+            }
+        }
+
+        if (def.hasTail()) {
+            out.println();
+            out.println("    public void decode (Packet p)");
+            out.println("    {");
+            out.println("        this.decodeHead(p);");
+            out.println("        this.decodeTail(p);");
+            out.println("    }");
+            writeDecode(out, def, "decodeHead", false);
+            writeDecode(out, def, "decodeTail", true);
+        } else {
+            writeDecode(out, def, "decode", false);
+        }
+
+        out.println("}");
+    }
+
+    private static void writeDecode (PrintWriter out, PacketDef def, String method, boolean tail)
+    {
+        List<Field> fields = new ArrayList<Field>();
+
+        for (Field f : def.fields) {
+            if (f.tail == tail) {
+                fields.add(f);
+            }
+        }
+
+        out.println();
+        out.println("    public void " + method + " (Packet p)");
+        out.println("    {");
+
+        boolean check = true;
+
+        for (int i = 0; i < fields.size(); i++) {
+            Field f = fields.get(i);
+
+            /* check the remaining minimum size up front and after every string */
+            if (check) {
+                int remaining = 0;
+
+                for (int j = i; j < fields.size(); j++) {
+                    remaining += fields.get(j).size();
+                }
+
+                out.println("        p.ensureReadable(" + remaining + ");");
+                check = false;
+            }
+
+            if (f.count > 1) {
+                for (int n = 0; n < f.count; n++) {
+                    out.println("        this." + f.name + "[" + n + "] = " + f.readCall() + ";");
+                }
+            } else {
+                out.println("        this." + f.name + " = " + f.readCall() + ";");
+            }
+
+            check = f.isString();
+        }
+
+        out.println("    }");
+    }
+
+    private static void writeEncoder (PrintWriter out, PacketDef def)
+    {
+        writeHeader(out, "java.io.IOException", "java.net.Socket", "org.openttd.enums.PacketType", "org.openttd.network.Packet");
+
+        StringBuilder params = new StringBuilder("Socket socket");
+
+        for (Field f : def.fields) {
+            params.append(", ").append(f.javaType()).append(" ").append(f.name);
+        }
+
+        out.println("/**");
+        out.println(" * Encoder for " + def.type + ".");
+        out.println(" */");
+        out.println("public final class " + def.className());
+        out.println("{");
+        out.println("    public static final PacketType TYPE = PacketType." + def.type + ";");
+        out.println();
+        out.println("    /** Minimum size of the payload in bytes. */");
+        out.println("    public static final int MIN_SIZE = " + def.minSize() + ";");
+        out.println();
+        out.println("    private " + def.className() + " () {}");
+        out.println();
+        out.println("    public static Packet encode (" + params + ") throws IOException");
+        out.println("    {");
+        out.println("        Packet p = new Packet(socket, TYPE);");
+
+        for (Field f : def.fields) {
+            if (f.count > 1) {
+                for (int n = 0; n < f.count; n++) {
+                    out.println("        " + f.writeCall(f.name + "[" + n + "]"));
+                }
+            } else {
+                out.println("        " + f.writeCall(f.name));
+            }
+        }
+
+        out.println();
+        out.println("        return p;");
+        out.println("    }");
+        out.println("}");
+    }
+
+    private static String capitalize (String s)
+    {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+}
@@ -25,13 +25,15 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.openttd.enums.*;
+import org.openttd.event.EventBus;
 import org.openttd.network.Network;
 import org.openttd.network.Protocol;
 
 /**
  * The OpenTTD Admin Network Bot Framework
  *
- * Extend this Class and implement the methods you wish to make use of.
+ * Extend this Class and implement the methods you wish to make use of,
+ * or subscribe any number of listeners to the EventBus of an instance.
  * @see OpenTTDBotExample
  *
  * @author Nathanael Rebsch
@@ -41,6 +43,7 @@ public abstract class OpenTTD
     protected Game game;
     protected Pool pool;
     protected Network network;
+    protected EventBus eventBus;
 
     protected String botName;
     protected String botVersion;
@@ -55,6 +58,7 @@ public abstract class OpenTTD
     {
         game = new Game();
         pool = new Pool();
+        eventBus = new EventBus();
         network = new Network(this);
     }
 
@@ -110,6 +114,14 @@ public abstract class OpenTTD
         return game;
     }
 
+    /**
+     * @return The EventBus all events of this connection are published on.
+     */
+    public EventBus getEventBus ()
+    {
+        return eventBus;
+    }
+
     /**
      * @return Network handler of this bot.
      */
@@ -566,7 +578,10 @@ public abstract class OpenTTD
     /**
      * Gamescript (NoGo) interaction is handled via JSON formatted strings.
      * It is up to the implementing Plugin to choose how to handle the data.
+     * To read the JSON without building a String first, subscribe to the
+     * GamescriptView instead, e.g. with a GamescriptRouter.
      * 
+     * @see org.openttd.gamescript.GamescriptRouter
      * @link http://www.tt-forums.net/viewtopic.php?f=33&t=57431
      * @link http://www.json.org
      * 
@@ -0,0 +1,384 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import org.openttd.enums.Colour;
+import org.openttd.enums.DoCommandName;
+import org.openttd.enums.DoCommandNameRegistry;
+import org.openttd.enums.Landscape;
+import org.openttd.enums.NetworkLanguage;
+import org.openttd.enums.VehicleType;
+
+/**
+ * Compact binary snapshot of the Game, the Pool and the DoCommandName table of a server.
+ *
+ * A snapshot written before a restart is loaded as provisional state, so a
+ * bot can act right away instead of waiting for every poll to be answered.
+ * The NetworkClient reconciles it against fresh polls once connected.
+ *
+ * Encoding and decoding must happen on the NetworkClient thread, as that is
+ * where the pools are modified.
+ */
+public final class Snapshot
+{
+    private static final int MAGIC   = 0x4A4F414E; /* "JOAN" */
+    private static final int VERSION = 1;
+
+    private Snapshot () {}
+
+    /**
+     * Encode the current state.
+     * @param openttd The instance to take the snapshot of.
+     * @param server Identifies the server, e.g. host:port.
+     * @return The encoded snapshot.
+     */
+    public static byte[] encode (OpenTTD openttd, String server)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(server);
+            out.writeLong(System.currentTimeMillis());
+
+            Game game = openttd.getGame();
+            Map map   = game.getMap();
+
+            writeString(out, game.name);
+            writeString(out, game.versionGame);
+            out.writeBoolean(game.dedicated);
+            writeString(out, map.name);
+            out.writeInt(map.landscape == null ? -1 : map.landscape.getValue());
+            writeDate(out, map.dateStart);
+            writeDate(out, map.dateCurrent);
+            out.writeLong(map.seed);
+            out.writeInt(map.width);
+            out.writeInt(map.height);
+
+            List<Client> clients = openttd.getPool().getClientPool().values();
+
+            out.writeInt(clients.size());
+            for (Client client : clients) {
+                out.writeLong(client.id);
+                writeString(out, client.name);
+                writeString(out, client.address);
+                out.writeInt(client.language == null ? -1 : client.language.getValue());
+                writeDate(out, client.joindate);
+                out.writeByte(client.companyId);
+            }
+
+            List<Company> companies = new ArrayList<Company>();
+            for (Company company : openttd.getPool().getCompanyPool().values()) {
+                if (Company.isValid(company.id)) {
+                    companies.add(company);
+                }
+            }
+
+            out.writeInt(companies.size());
+            for (Company company : companies) {
+                out.writeByte(company.id);
+                writeString(out, company.name);
+                writeString(out, company.president);
+                out.writeLong(company.inaugurated);
+                out.writeBoolean(company.passworded);
+                out.writeBoolean(company.ai);
+                out.writeInt(company.colour == null ? -1 : company.colour.getValue());
+                out.writeByte(company.bankruptcy);
+
+                for (int share : company.shares) {
+                    out.writeByte(share);
+                }
+
+                Economy economy = company.current_economy;
+                writeDate(out, economy.date);
+                writeMoney(out, economy.money);
+                writeMoney(out, economy.loan);
+                writeMoney(out, economy.income);
+
+                for (VehicleType vt : VehicleType.values()) {
+                    out.writeShort(valueOf(company.vehicles.get(vt)));
+                    out.writeShort(valueOf(company.stations.get(vt)));
+                }
+            }
+
+            DoCommandNameRegistry registry = openttd.getNetwork().getCommandNames();
+            DoCommandName[] commands = (registry == null) ? new DoCommandName[0] : registry.values();
+
+            out.writeInt(commands.length);
+            for (DoCommandName command : commands) {
+                out.writeShort(command.getValue());
+                out.writeUTF(command.toString());
+            }
+
+            out.flush();
+        } catch (IOException ex) {
+            /* writing to a ByteArrayOutputStream does not fail */
+            throw new IllegalStateException(ex);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replace the current state with the one of a snapshot.
+     * Nothing is changed if the snapshot is corrupt or belongs to another server.
+     * @param openttd The instance to restore.
+     * @param server Identifies the server, e.g. host:port.
+     * @param data The encoded snapshot.
+     * @return Age of the snapshot in milliseconds.
+     * @throws IOException if the snapshot cannot be decoded.
+     */
+    public static long decode (OpenTTD openttd, String server, byte[] data) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a snapshot of this version");
+        }
+
+        String snapshotServer = in.readUTF();
+        if (!snapshotServer.equals(server)) {
+            throw new IOException("Snapshot of " + snapshotServer + " instead of " + server);
+        }
+
+        long written = in.readLong();
+
+        /* decode everything before touching the live state */
+        Game game = new Game();
+        Map map   = game.getMap();
+
+        game.name        = readString(in);
+        game.versionGame = readString(in);
+        game.dedicated   = in.readBoolean();
+        map.name         = readString(in);
+        map.landscape    = Landscape.valueOf(in.readInt());
+        map.dateStart    = readDate(in);
+        map.dateCurrent  = readDate(in);
+        map.seed         = in.readLong();
+        map.width        = in.readInt();
+        map.height       = in.readInt();
+
+        List<Client> clients = new ArrayList<Client>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Client client = new Client(in.readLong());
+
+            client.name      = readString(in);
+            client.address   = readString(in);
+            client.language  = NetworkLanguage.valueOf(in.readInt());
+            client.joindate  = readDate(in);
+            client.companyId = in.readUnsignedByte();
+            clients.add(client);
+        }
+
+        List<Company> companies = new ArrayList<Company>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Company company = new Company(in.readUnsignedByte());
+
+            company.name        = readString(in);
+            company.president   = readString(in);
+            company.inaugurated = in.readLong();
+            company.passworded  = in.readBoolean();
+            company.ai          = in.readBoolean();
+            company.colour      = Colour.valueOf(in.readInt());
+            company.bankruptcy  = in.readUnsignedByte();
+
+            for (int s = 0; s < company.shares.length; s++) {
+                company.shares[s] = in.readUnsignedByte();
+            }
+
+            company.current_economy.date   = readDate(in);
+            company.current_economy.money  = readMoney(in);
+            company.current_economy.loan   = readMoney(in);
+            company.current_economy.income = readMoney(in);
+
+            for (VehicleType vt : VehicleType.values()) {
+                company.vehicles.put(vt, in.readUnsignedShort());
+                company.stations.put(vt, in.readUnsignedShort());
+            }
+
+            companies.add(company);
+        }
+
+        int[] commandIds = new int[in.readInt()];
+        String[] commandNames = new String[commandIds.length];
+        for (int i = 0; i < commandIds.length; i++) {
+            commandIds[i]   = in.readUnsignedShort();
+            commandNames[i] = in.readUTF();
+        }
+
+        /* now apply it */
+        Game current = openttd.getGame();
+        current.name        = game.name;
+        current.versionGame = game.versionGame;
+        current.dedicated   = game.dedicated;
+        current.map         = map;
+
+        for (Client client : clients) {
+            openttd.getPool().getClientPool().add(client);
+        }
+
+        for (Company company : companies) {
+            openttd.getPool().getCompanyPool().add(company);
+        }
+
+        /* without a revision the names can not be told apart from those of other servers */
+        DoCommandNameRegistry registry = (game.versionGame == null) ? null : DoCommandNameRegistry.forRevision(game.versionGame);
+
+        if (registry != null && registry.isEmpty()) {
+            DoCommandName[] commands = new DoCommandName[commandIds.length];
+            for (int i = 0; i < commandIds.length; i++) {
+                commands[i] = new DoCommandName(commandNames[i], commandIds[i]);
+            }
+            registry.register(commands);
+        }
+
+        return System.currentTimeMillis() - written;
+    }
+
+    /**
+     * Write a snapshot to a file, replacing the previous one only once the new one is complete.
+     * @param file The file to write to.
+     * @param data The encoded snapshot.
+     * @throws IOException
+     */
+    public static void write (File file, byte[] data) throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        /* renameTo does not replace an existing file on every platform */
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * @param file The file to read from.
+     * @return The encoded snapshot, or null if there is none.
+     * @throws IOException
+     */
+    public static byte[] read (File file) throws IOException
+    {
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString (DataOutputStream out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString (DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDate (DataOutputStream out, GameDate date) throws IOException
+    {
+        out.writeBoolean(date != null);
+        if (date != null) {
+            out.writeInt(date.year);
+            out.writeByte(date.month);
+            out.writeByte(date.day);
+        }
+    }
+
+    private static GameDate readDate (DataInputStream in) throws IOException
+    {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        int year  = in.readInt();
+        int month = in.readUnsignedByte();
+        int day   = in.readUnsignedByte();
+
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month - 1, day);
+
+        return new GameDate(cal);
+    }
+
+    private static void writeMoney (DataOutputStream out, BigInteger money) throws IOException
+    {
+        if (money == null) {
+            out.writeByte(0);
+            return;
+        }
+
+        byte[] b = money.toByteArray();
+        out.writeByte(b.length);
+        out.write(b);
+    }
+
+    private static BigInteger readMoney (DataInputStream in) throws IOException
+    {
+        int length = in.readUnsignedByte();
+
+        if (length == 0) {
+            return null;
+        }
+
+        byte[] b = new byte[length];
+        in.readFully(b);
+
+        return new BigInteger(b);
+    }
+
+    private static int valueOf (Integer i)
+    {
+        return (i == null) ? 0 : i;
+    }
+}
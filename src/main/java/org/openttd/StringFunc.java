@@ -18,6 +18,9 @@
 
 package org.openttd;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  *
  * @author nathanael
@@ -37,4 +40,90 @@ public final class StringFunc
 
         return sb.toString();
     }
+
+    /**
+     * Number of bytes needed to encode a String in UTF-8, as done by Packet.writeString().
+     * Unpaired surrogates count as the single byte '?' they are replaced with.
+     * @param str The String to measure.
+     * @return Length in bytes, without the terminating NUL.
+     */
+    public static int utf8Length (String str)
+    {
+        int len = str.length();
+        int bytes = len;
+
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+
+            if (c < 0x80) {
+                continue;
+            }
+
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                /* 4 bytes for the pair, which counts as 2 chars already */
+                bytes += 2;
+                i++;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                bytes += 2;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Split a String into parts that encode to at most maxBytes in UTF-8 each.
+     * Parts end at the last space if there is one in their second half,
+     * code points are never split.
+     * @param str The String to split.
+     * @param maxBytes Maximum length of each part in bytes.
+     * @return The parts, str itself if it fits.
+     */
+    public static List<String> splitUtf8 (String str, int maxBytes)
+    {
+        List<String> parts = new ArrayList<String>();
+        int len = str.length();
+        int start = 0;
+        int end = 0;
+        int bytes = 0;
+        int space = -1;
+
+        while (end < len) {
+            int cp = str.codePointAt(end);
+            int n = (cp < 0x80) ? 1 : (cp < 0x800) ? 2 : (cp >= 0x10000) ? 4 : (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) ? 1 : 3;
+
+            if (bytes + n <= maxBytes) {
+                if (cp == ' ') {
+                    space = end;
+                }
+
+                bytes += n;
+                end += Character.charCount(cp);
+                continue;
+            }
+
+            if (end == start) {
+                throw new IllegalArgumentException("maxBytes too small to hold a single character");
+            }
+
+            if (space > start && space - start >= (end - start) / 2) {
+                parts.add(str.substring(start, space));
+                start = space + 1;
+            } else {
+                parts.add(str.substring(start, end));
+                start = end;
+            }
+
+            /* only the tail after a split space gets counted again, at most half a part */
+            end = start;
+            bytes = 0;
+            space = -1;
+        }
+
+        parts.add(str.substring(start));
+
+        return parts;
+    }
 }
@@ -29,10 +29,10 @@ public enum AdminCompanyRemoveReason implements Reversible<Integer>
     ADMIN_CRR_BANKRUPT   (2);
 
     private Integer value;
-    private static final ReverseLookup<Integer, AdminCompanyRemoveReason> lookup;
+    private static final IntReverseLookup<AdminCompanyRemoveReason> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, AdminCompanyRemoveReason>(AdminCompanyRemoveReason.class);
+        lookup = new IntReverseLookup<AdminCompanyRemoveReason>(AdminCompanyRemoveReason.class);
     }
 
     AdminCompanyRemoveReason (int i)
@@ -33,10 +33,10 @@ public enum AdminUpdateFrequency implements Reversible<Integer>
     ADMIN_FREQUENCY_AUTOMATIC (0x40);
 
     private Integer value;
-    private static final ReverseLookup<Integer, AdminUpdateFrequency> lookup;
+    private static final IntReverseLookup<AdminUpdateFrequency> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, AdminUpdateFrequency>(AdminUpdateFrequency.class);
+        lookup = new IntReverseLookup<AdminUpdateFrequency>(AdminUpdateFrequency.class);
     }
 
     AdminUpdateFrequency (int i)
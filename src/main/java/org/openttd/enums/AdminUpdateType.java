@@ -37,10 +37,10 @@ public enum AdminUpdateType implements Reversible<Integer>
     ADMIN_UPDATE_END             (10);
 
     private Integer value;
-    private static final ReverseLookup<Integer, AdminUpdateType> lookup;
+    private static final IntReverseLookup<AdminUpdateType> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, AdminUpdateType>(AdminUpdateType.class);
+        lookup = new IntReverseLookup<AdminUpdateType>(AdminUpdateType.class);
     }
 
     AdminUpdateType (int i)
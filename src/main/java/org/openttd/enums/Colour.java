@@ -44,10 +44,10 @@ public enum Colour implements Reversible<Integer>
     INVALID     (0xFF);
 
     private Integer value;
-    private static final ReverseLookup<Integer, Colour> lookup;
+    private static final IntReverseLookup<Colour> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, Colour>(Colour.class);
+        lookup = new IntReverseLookup<Colour>(Colour.class);
     }
 
     Colour (int i)
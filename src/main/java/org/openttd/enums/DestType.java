@@ -29,10 +29,10 @@ public enum DestType implements Reversible<Integer>
     DESTTYPE_CLIENT    (2);
 
     private Integer value;
-    private static final ReverseLookup<Integer, DestType> lookup;
+    private static final IntReverseLookup<DestType> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, DestType>(DestType.class);
+        lookup = new IntReverseLookup<DestType>(DestType.class);
     }
 
     DestType (int i)
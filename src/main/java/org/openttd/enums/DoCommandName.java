@@ -18,44 +18,18 @@
 
 package org.openttd.enums;
 
-import java.util.ArrayList;
-import java.util.List;
-
-
 /**
  * Dynamic enumeration, to represent an enumeration as received from the server.
+ * The names of a server are kept in the DoCommandNameRegistry of its revision.
  * @author Nathanael Rebsch
  */
 public class DoCommandName implements Reversible<Integer>
 {
     protected final String name;
     protected final Integer value;
-    
-    private static final ThreadLocal<List<DoCommandName>> enumeration;
-    private static final ThreadLocal<ReverseLookup<Integer,DoCommandName>> lookup;
-
-    static {
-        enumeration = new ThreadLocal<List<DoCommandName>>()
-        {
-            @Override
-            protected List<DoCommandName> initialValue ()
-            {
-                return new ArrayList<DoCommandName>();
-            }
-        };
-
-        lookup = new ThreadLocal<ReverseLookup<Integer,DoCommandName>>()
-        {
-            @Override
-            protected ReverseLookup<Integer,DoCommandName> initialValue ()
-            {
-                return new ReverseLookup<Integer,DoCommandName>();
-            }
-        };
-    }
 
     /**
-     * Constructor, adds another DoCommandName type to the Dynamic enumeration.
+     * Constructor, use DoCommandNameRegistry.register() to make it known.
      * @param name The name of this enumeration.
      * @param value The value of this enumeration.
      */
@@ -63,19 +37,20 @@ public class DoCommandName implements Reversible<Integer>
     {
         this.name  = name;
         this.value = value;
-
-        enumeration.get().add(this);
-        lookup.get().add(this);
     }
 
     /**
-     * Get an instance of the DoCommandNmae with the index of i.
+     * Get an instance of the DoCommandName with the index of i.
      * @param i Index of the desired DoCommandName.
      * @return Instance of DoCommandName or null.
+     * @deprecated Only correct if all servers run the same revision, use
+     *             the DoCommandNameRegistry of the connection instead.
      */
+    @Deprecated
     public static DoCommandName valueOf (int i)
     {
-        return lookup.get().get(i);
+        DoCommandNameRegistry registry = DoCommandNameRegistry.getLatest();
+        return (registry == null) ? null : registry.get(i);
     }
 
     @Override
@@ -90,9 +65,14 @@ public class DoCommandName implements Reversible<Integer>
         return this.name;
     }
 
+    /**
+     * @deprecated Only correct if all servers run the same revision, use
+     *             the DoCommandNameRegistry of the connection instead.
+     */
+    @Deprecated
     public static DoCommandName[] values ()
     {
-        DoCommandName[] a = new DoCommandName[enumeration.get().size()];
-        return enumeration.get().toArray(a);
+        DoCommandNameRegistry registry = DoCommandNameRegistry.getLatest();
+        return (registry == null) ? new DoCommandName[0] : registry.values();
     }
 }
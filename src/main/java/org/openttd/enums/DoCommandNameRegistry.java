@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.enums;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The DoCommandNames of one OpenTTD revision, shared by all connections to
+ * servers running that revision.
+ *
+ * The names are kept in an array indexed by the command id. Registering
+ * publishes a new array, lookups read the current one without locking.
+ */
+public final class DoCommandNameRegistry
+{
+    /** Command ids are transferred as uint16. */
+    public static final int MAX_COMMANDS = 0x10000;
+
+    private static final ConcurrentMap<String, DoCommandNameRegistry> registries = new ConcurrentHashMap<String, DoCommandNameRegistry>();
+
+    /** The registry names have been registered with most recently. */
+    private static volatile DoCommandNameRegistry latest = null;
+
+    private final String revision;
+    private final AtomicReference<DoCommandName[]> commands = new AtomicReference<DoCommandName[]>(new DoCommandName[0]);
+
+    private DoCommandNameRegistry (String revision)
+    {
+        this.revision = revision;
+    }
+
+    /**
+     * Get the registry of an OpenTTD revision, creating it if needed.
+     * @param revision The revision as reported by SERVER_WELCOME.
+     * @return The registry shared by all servers of this revision.
+     */
+    public static DoCommandNameRegistry forRevision (String revision)
+    {
+        String key = (revision == null) ? "" : revision;
+        DoCommandNameRegistry registry = registries.get(key);
+
+        if (registry == null) {
+            registry = new DoCommandNameRegistry(key);
+
+            DoCommandNameRegistry existing = registries.putIfAbsent(key, registry);
+            if (existing != null) {
+                registry = existing;
+            }
+        }
+
+        return registry;
+    }
+
+    /**
+     * @return The registry names have been registered with most recently, or null.
+     */
+    protected static DoCommandNameRegistry getLatest ()
+    {
+        return latest;
+    }
+
+    public String getRevision ()
+    {
+        return this.revision;
+    }
+
+    /**
+     * Add commands to the registry. Commands already known keep their instance.
+     * @param names The commands to add.
+     */
+    public void register (DoCommandName... names)
+    {
+        DoCommandName[] current;
+        DoCommandName[] updated;
+
+        do {
+            current = this.commands.get();
+
+            int length = current.length;
+            for (DoCommandName name : names) {
+                length = Math.max(length, name.value + 1);
+            }
+
+            updated = new DoCommandName[length];
+            System.arraycopy(current, 0, updated, 0, current.length);
+
+            for (DoCommandName name : names) {
+                if (name.value < 0 || name.value >= MAX_COMMANDS) {
+                    throw new IllegalArgumentException("Invalid command id " + name.value);
+                }
+
+                if (updated[name.value] == null) {
+                    updated[name.value] = name;
+                }
+            }
+        } while (!this.commands.compareAndSet(current, updated));
+
+        latest = this;
+    }
+
+    /**
+     * Get the DoCommandName of a command id.
+     * @param id The command id.
+     * @return Instance of DoCommandName or null if the id is not known.
+     */
+    public DoCommandName get (int id)
+    {
+        DoCommandName[] a = this.commands.get();
+
+        return (id >= 0 && id < a.length) ? a[id] : null;
+    }
+
+    /**
+     * @return true if no names have been registered yet.
+     */
+    public boolean isEmpty ()
+    {
+        return this.commands.get().length == 0;
+    }
+
+    /**
+     * @return All known commands, ordered by id.
+     */
+    public DoCommandName[] values ()
+    {
+        DoCommandName[] a = this.commands.get();
+        int n = 0;
+
+        for (DoCommandName name : a) {
+            if (name != null) {
+                n++;
+            }
+        }
+
+        DoCommandName[] result = new DoCommandName[n];
+        n = 0;
+
+        for (DoCommandName name : a) {
+            if (name != null) {
+                result[n++] = name;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.enums;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reverse Lookup of enumerations with int values, without boxing.
+ *
+ * Dense value ranges are looked up in a flat array indexed by the value,
+ * sparse ones by a binary search over the sorted values.
+ * @author Nathanael Rebsch
+ */
+public class IntReverseLookup<E extends Enum<E> & Reversible<Integer>>
+{
+    /** Ranges up to this size always use a flat array, whatever the number of constants. */
+    private static final int MAX_FLAT_RANGE = 256;
+
+    /** Larger ranges use a flat array if at least one in this many slots is in use. */
+    private static final int MIN_FLAT_DENSITY = 4;
+
+    private final int offset;
+    private final Object[] table;
+
+    /* sorted values and their constants, only used if table is null */
+    private final int[] keys;
+    private final Object[] constants;
+
+    /**
+     * Constructor. Creates the reverse lookup table of all constants of an enum.
+     * @param clazz The enum to create the lookup table for.
+     */
+    public IntReverseLookup (final Class<E> clazz)
+    {
+        E[] values = clazz.getEnumConstants();
+
+        Arrays.sort(values, new Comparator<E>()
+        {
+            @Override
+            public int compare (E a, E b)
+            {
+                int va = a.getValue();
+                int vb = b.getValue();
+                return (va < vb) ? -1 : ((va == vb) ? 0 : 1);
+            }
+        });
+
+        long min   = (values.length == 0) ? 0 : values[0].getValue();
+        long max   = (values.length == 0) ? -1 : values[values.length - 1].getValue();
+        long range = max - min + 1;
+
+        if (range <= MAX_FLAT_RANGE || range <= (long) values.length * MIN_FLAT_DENSITY) {
+            this.offset    = (int) min;
+            this.table     = new Object[(int) range];
+            this.keys      = null;
+            this.constants = null;
+
+            /* like ReverseLookup, the last declared constant wins on duplicate values */
+            for (int i = 0; i < values.length; i++) {
+                this.table[values[i].getValue() - this.offset] = values[i];
+            }
+        } else {
+            this.offset    = 0;
+            this.table     = null;
+            this.keys      = new int[values.length];
+            this.constants = new Object[values.length];
+
+            for (int i = 0; i < values.length; i++) {
+                this.keys[i]      = values[i].getValue();
+                this.constants[i] = values[i];
+            }
+        }
+    }
+
+    /**
+     * Get an instance of the enumeration corresponding to the value given.
+     * @param value Value to which an instance of the enumeration should be returned.
+     * @return Instance of the corresponding enumeration or null if not found.
+     */
+    @SuppressWarnings("unchecked")
+    public E get (final int value)
+    {
+        if (this.table != null) {
+            long index = (long) value - this.offset;
+            return (index >= 0 && index < this.table.length) ? (E) this.table[(int) index] : null;
+        }
+
+        int i = Arrays.binarySearch(this.keys, value);
+
+        if (i < 0) {
+            return null;
+        }
+
+        /* the sort is stable, so the last declared constant comes last */
+        while (i < this.keys.length - 1 && this.keys[i + 1] == value) {
+            i++;
+        }
+
+        return (E) this.constants[i];
+    }
+}
@@ -31,10 +31,10 @@ public enum Landscape implements Reversible<Integer>
     NUM_LANDSCAPE        (4);
 
     private Integer value;
-    private static final ReverseLookup<Integer, Landscape> lookup;
+    private static final IntReverseLookup<Landscape> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, Landscape>(Landscape.class);
+        lookup = new IntReverseLookup<Landscape>(Landscape.class);
     }
 
     Landscape (int i)
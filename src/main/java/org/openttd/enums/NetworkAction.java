@@ -37,10 +37,10 @@ public enum NetworkAction implements Reversible<Integer>
     NETWORK_ACTION_COMPANY_NEW        (10);
 
     private Integer value;
-    private static final ReverseLookup<Integer, NetworkAction> lookup;
+    private static final IntReverseLookup<NetworkAction> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, NetworkAction>(NetworkAction.class);
+        lookup = new IntReverseLookup<NetworkAction>(NetworkAction.class);
     }
 
     NetworkAction (int i)
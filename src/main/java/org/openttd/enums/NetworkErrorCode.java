@@ -45,10 +45,10 @@ public enum NetworkErrorCode implements Reversible<Integer>
     NETWORK_ERROR_FULL               (14);
 
     private Integer value;
-    private static final ReverseLookup<Integer, NetworkErrorCode> lookup;
+    private static final IntReverseLookup<NetworkErrorCode> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, NetworkErrorCode>(NetworkErrorCode.class);
+        lookup = new IntReverseLookup<NetworkErrorCode>(NetworkErrorCode.class);
     }
 
     NetworkErrorCode (int i)
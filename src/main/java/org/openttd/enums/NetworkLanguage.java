@@ -63,10 +63,10 @@ public enum NetworkLanguage implements Reversible<Integer>
     NETLANG_COUNT      (36);
 
     private Integer value;
-    private static final ReverseLookup<Integer, NetworkLanguage> lookup;
+    private static final IntReverseLookup<NetworkLanguage> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, NetworkLanguage>(NetworkLanguage.class);
+        lookup = new IntReverseLookup<NetworkLanguage>(NetworkLanguage.class);
     }
 
     NetworkLanguage (int i)
@@ -68,10 +68,10 @@ public enum PacketType implements Reversible<Integer>
     private final Integer value;
     private final String dispatchName;
 
-    private static final ReverseLookup<Integer, PacketType> lookup;
+    private static final IntReverseLookup<PacketType> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, PacketType>(PacketType.class);
+        lookup = new IntReverseLookup<PacketType>(PacketType.class);
     }
 
     PacketType (int i)
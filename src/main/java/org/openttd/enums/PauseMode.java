@@ -36,10 +36,10 @@ public enum PauseMode implements Reversible<Integer>
     PMB_PAUSED_NETWORK  (PM_PAUSED_ACTIVE_CLIENTS.value | PM_PAUSED_JOIN.value);
 
     private Integer value;
-    private static final ReverseLookup<Integer, PauseMode> lookup;
+    private static final IntReverseLookup<PauseMode> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, PauseMode>(PauseMode.class);
+        lookup = new IntReverseLookup<PauseMode>(PauseMode.class);
     }
 
     PauseMode (int i)
@@ -31,10 +31,10 @@ public enum VehicleType implements Reversible<Integer>
     NETWORK_VEH_SHIP   (4);
 
     private Integer value;
-    private static final ReverseLookup<Integer, VehicleType> lookup;
+    private static final IntReverseLookup<VehicleType> lookup;
 
     static {
-        lookup = new ReverseLookup<Integer, VehicleType>(VehicleType.class);
+        lookup = new IntReverseLookup<VehicleType>(VehicleType.class);
     }
 
     VehicleType (int i)
@@ -0,0 +1,59 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.event;
+
+import java.math.BigInteger;
+import org.openttd.Client;
+import org.openttd.OpenTTD;
+import org.openttd.enums.DestType;
+import org.openttd.enums.NetworkAction;
+
+/**
+ * Someone in the game is chatting.
+ */
+public class ChatEvent extends Event
+{
+    /** The action of this chat message (e.g. give money). */
+    public final NetworkAction action;
+    /** The destination type of this chat message. */
+    public final DestType desttype;
+    /** The client that sent this message. */
+    public final Client client;
+    /** The actual message. */
+    public final String message;
+    /** Money (in case this was a 'give money' action). */
+    public final BigInteger data;
+
+    public ChatEvent (OpenTTD openttd, NetworkAction action, DestType desttype, Client client, String message, BigInteger data)
+    {
+        super(openttd);
+
+        this.action   = action;
+        this.desttype = desttype;
+        this.client   = client;
+        this.message  = message;
+        this.data     = data;
+    }
+
+    @Override
+    public void deliver (OpenTTD openttd)
+    {
+        openttd.onChat(action, desttype, client, message, data);
+    }
+}
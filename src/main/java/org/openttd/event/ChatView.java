@@ -0,0 +1,124 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.event;
+
+import org.openttd.Client;
+import org.openttd.OpenTTD;
+import org.openttd.enums.DestType;
+import org.openttd.enums.NetworkAction;
+import org.openttd.network.Packet;
+
+/**
+ * Flyweight view on a SERVER_CHAT packet.
+ * @see PacketView
+ */
+public class ChatView extends PacketView
+{
+    private static final int POS_ACTION  = Packet.POS_PAYLOAD;
+    private static final int POS_DEST    = POS_ACTION + 1;
+    private static final int POS_CLIENT  = POS_DEST + 1;
+    private static final int POS_MESSAGE = POS_CLIENT + 4;
+
+    private int messageEnd = -1;
+
+    public ChatView (OpenTTD openttd)
+    {
+        super(openttd);
+    }
+
+    @Override
+    protected void reset ()
+    {
+        this.messageEnd = -1;
+    }
+
+    public NetworkAction getAction ()
+    {
+        return NetworkAction.valueOf(packet().getUint8(POS_ACTION));
+    }
+
+    public DestType getDestType ()
+    {
+        return DestType.valueOf(packet().getUint8(POS_DEST));
+    }
+
+    public long getClientId ()
+    {
+        return packet().getUint32(POS_CLIENT);
+    }
+
+    /**
+     * @return The client from the pool, or null if it is not known (yet).
+     */
+    public Client getClient ()
+    {
+        return openttd.getPool().getClientPool().get(getClientId());
+    }
+
+    /**
+     * @return The message, decoded into a new String.
+     */
+    public String getMessage ()
+    {
+        return packet().getString(POS_MESSAGE);
+    }
+
+    /**
+     * Compare the message without decoding it.
+     * @param s String to compare with.
+     * @return true if the message equals s.
+     */
+    public boolean messageEquals (String s)
+    {
+        return packet().stringEquals(POS_MESSAGE, s);
+    }
+
+    /**
+     * @return Length of the message in bytes.
+     */
+    public int getMessageLength ()
+    {
+        return messageEnd() - POS_MESSAGE;
+    }
+
+    /**
+     * @return Money (in case this was a 'give money' action), as raw uint64.
+     */
+    public long getData ()
+    {
+        return packet().getInt64(messageEnd() + 1);
+    }
+
+    private int messageEnd ()
+    {
+        if (this.messageEnd < 0) {
+            this.messageEnd = packet().getStringEnd(POS_MESSAGE);
+        }
+
+        return this.messageEnd;
+    }
+
+    @Override
+    public ChatView copy ()
+    {
+        ChatView view = new ChatView(openttd);
+        view.wrap(packet().copy());
+
+        return view;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.event;
+
+import org.openttd.Client;
+import org.openttd.OpenTTD;
+import org.openttd.enums.NetworkErrorCode;
+
+/**
+ * A client has caused an error and was disconnected.
+ */
+public class ClientErrorEvent extends Event
+{
+    /** The client that was disconnected. */
+    public final Client client;
+    /** The error the client caused. */
+    public final NetworkErrorCode error;
+
+    public ClientErrorEvent (OpenTTD openttd, Client client, NetworkErrorCode error)
+    {
+        super(openttd);
+
+        this.client = client;
+        this.error  = error;
+    }
+
+    @Override
+    public void deliver (OpenTTD openttd)
+    {
+        openttd.onClientError(client, error);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.event;
+
+import org.openttd.Client;
+import org.openttd.Company;
+import org.openttd.OpenTTD;
+import org.openttd.enums.DoCommandName;
+
+/**
+ * A DoCommand has been executed, for logging purposes only.
+ */
+public class CmdLoggingEvent extends Event
+{
+    /** The client that executed the command. */
+    public final Client client;
+    /** The company that executed the command. */
+    public final Company company;
+    /** The command. */
+    public final DoCommandName command;
+    /** Variable value to the command. */
+    public final long p1;
+    /** Variable value to the command. */
+    public final long p2;
+    /** The tile where the command takes place. */
+    public final long tile;
+    /** Additional text to the command. */
+    public final String text;
+    /** Frame in which the command is to be executed. */
+    public final long frame;
+
+    public CmdLoggingEvent (OpenTTD openttd, Client client, Company company, DoCommandName command, long p1, long p2, long tile, String text, long frame)
+    {
+        super(openttd);
+
+        this.client  = client;
+        this.company = company;
+        this.command = command;
+        this.p1      = p1;
+        this.p2      = p2;
+        this.tile    = tile;
+        this.text    = text;
+        this.frame   = frame;
+    }
+
+    @Override
+    public void deliver (OpenTTD openttd)
+    {
+        openttd.onCmdLogging(client, company, command, p1, p2, tile, text, frame);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.event;
+
+import org.openttd.Client;
+import org.openttd.Company;
+import org.openttd.OpenTTD;
+import org.openttd.enums.DoCommandName;
+import org.openttd.enums.DoCommandNameRegistry;
+import org.openttd.network.Packet;
+
+/**
+ * Flyweight view on a SERVER_CMD_LOGGING packet.
+ * @see PacketView
+ */
+public class CmdLoggingView extends PacketView
+{
+    private static final int POS_CLIENT  = Packet.POS_PAYLOAD;
+    private static final int POS_COMPANY = POS_CLIENT + 4;
+    private static final int POS_COMMAND = POS_COMPANY + 1;
+    private static final int POS_P1      = POS_COMMAND + 2;
+    private static final int POS_P2      = POS_P1 + 4;
+    private static final int POS_TILE    = POS_P2 + 4;
+    private static final int POS_TEXT    = POS_TILE + 4;
+
+    private int textEnd = -1;
+
+    public CmdLoggingView (OpenTTD openttd)
+    {
+        super(openttd);
+    }
+
+    @Override
+    protected void reset ()
+    {
+        this.textEnd = -1;
+    }
+
+    public long getClientId ()
+    {
+        return packet().getUint32(POS_CLIENT);
+    }
+
+    /**
+     * @return The client from the pool, or null if it is not known (yet).
+     */
+    public Client getClient ()
+    {
+        return openttd.getPool().getClientPool().get(getClientId());
+    }
+
+    public int getCompanyId ()
+    {
+        return packet().getUint8(POS_COMPANY);
+    }
+
+    /**
+     * @return The company from the pool, or null if it is not known (yet).
+     */
+    public Company getCompany ()
+    {
+        return openttd.getPool().getCompanyPool().get(getCompanyId());
+    }
+
+    public int getCommandId ()
+    {
+        return packet().getUint16(POS_COMMAND);
+    }
+
+    /**
+     * @return The command, or null if its name is not known (yet).
+     */
+    public DoCommandName getCommand ()
+    {
+        DoCommandNameRegistry commandNames = openttd.getNetwork().getCommandNames();
+        return (commandNames == null) ? null : commandNames.get(getCommandId());
+    }
+
+    public long getP1 ()
+    {
+        return packet().getUint32(POS_P1);
+    }
+
+    public long getP2 ()
+    {
+        return packet().getUint32(POS_P2);
+    }
+
+    public long getTile ()
+    {
+        return packet().getUint32(POS_TILE);
+    }
+
+    /**
+     * @return The text of the command, decoded into a new String.
+     */
+    public String getText ()
+    {
+        return packet().getString(POS_TEXT);
+    }
+
+    /**
+     * @return Length of the text in bytes.
+     */
+    public int getTextLength ()
+    {
+        return textEnd() - POS_TEXT;
+    }
+
+    /**
+     * Compare the text of the command without decoding it.
+     * @param s String to compare with.
+     * @return true if the text equals s.
+     */
+    public boolean textEquals (String s)
+    {
+        return packet().stringEquals(POS_TEXT, s);
+    }
+
+    public long getFrame ()
+    {
+        return packet().getUint32(textEnd() + 1);
+    }
+
+    private int textEnd ()
+    {
+        if (this.textEnd < 0) {
+            this.textEnd = packet().getStringEnd(POS_TEXT);
+        }
+
+        return this.textEnd;
+    }
+
+    @Override
+    public CmdLoggingView copy ()
+    {
+        CmdLoggingView view = new CmdLoggingView(openttd);
+        view.wrap(packet().copy());
+
+        return view;
+    }
+}
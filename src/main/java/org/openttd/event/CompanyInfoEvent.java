@@ -0,0 +1,44 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.event;
+
+import org.openttd.Company;
+import org.openttd.OpenTTD;
+
+/**
+ * Information on a company has been received.
+ */
+public class CompanyInfoEvent extends Event
+{
+    /** The company. */
+    public final Company company;
+
+    public CompanyInfoEvent (OpenTTD openttd, Company company)
+    {
+        super(openttd);
+
+        this.company = company;
+    }
+
+    @Override
+    public void deliver (OpenTTD openttd)
+    {
+        openttd.onCompanyInfo(company);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.event;
+
+import org.openttd.OpenTTD;
+import org.openttd.network.Packet;
+
+/**
+ * Flyweight view on a SERVER_CONSOLE packet.
+ * @see PacketView
+ */
+public class ConsoleView extends PacketView
+{
+    private static final int POS_ORIGIN = Packet.POS_PAYLOAD;
+
+    private int posMessage = -1;
+
+    public ConsoleView (OpenTTD openttd)
+    {
+        super(openttd);
+    }
+
+    @Override
+    protected void reset ()
+    {
+        this.posMessage = -1;
+    }
+
+    /**
+     * @return The origin (e.g. console, net, ai, ...), decoded into a new String.
+     */
+    public String getOrigin ()
+    {
+        return packet().getString(POS_ORIGIN);
+    }
+
+    /**
+     * Compare the origin without decoding it.
+     * @param s String to compare with.
+     * @return true if the origin equals s.
+     */
+    public boolean originEquals (String s)
+    {
+        return packet().stringEquals(POS_ORIGIN, s);
+    }
+
+    /**
+     * @return The message, decoded into a new String.
+     */
+    public String getMessage ()
+    {
+        return packet().getString(posMessage());
+    }
+
+    /**
+     * Compare the message without decoding it.
+     * @param s String to compare with.
+     * @return true if the message equals s.
+     */
+    public boolean messageEquals (String s)
+    {
+        return packet().stringEquals(posMessage(), s);
+    }
+
+    /**
+     * @return Length of the message in bytes.
+     */
+    public int getMessageLength ()
+    {
+        return packet().getStringEnd(posMessage()) - posMessage();
+    }
+
+    private int posMessage ()
+    {
+        if (this.posMessage < 0) {
+            this.posMessage = packet().getStringEnd(POS_ORIGIN) + 1;
+        }
+
+        return this.posMessage;
+    }
+
+    @Override
+    public ConsoleView copy ()
+    {
+        ConsoleView view = new ConsoleView(openttd);
+        view.wrap(packet().copy());
+
+        return view;
+    }
+}
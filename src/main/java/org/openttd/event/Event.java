@@ -0,0 +1,57 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.event;
+
+import org.openttd.OpenTTD;
+
+/**
+ * Base of all events published on an EventBus.
+ */
+public abstract class Event
+{
+    protected final OpenTTD openttd;
+
+    protected Event (OpenTTD openttd)
+    {
+        this.openttd = openttd;
+    }
+
+    /**
+     * @return The bot (and thus the connection) this event originates from.
+     */
+    public OpenTTD getOpenTTD ()
+    {
+        return openttd;
+    }
+
+    /**
+     * Get an instance of this event that stays valid after the dispatch has finished.
+     * Events are immutable and return themselves, flyweight views return a copy.
+     * @return An event that can be retained.
+     */
+    public Event detach ()
+    {
+        return this;
+    }
+
+    /**
+     * Invoke the matching on*() callback of an OpenTTD instance.
+     * @param openttd The instance to call.
+     */
+    public abstract void deliver (OpenTTD openttd);
+}
@@ -0,0 +1,206 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.event;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Typed publish/subscribe of events.
+ *
+ * Every OpenTTD instance has its own bus. Several of them can share a parent
+ * bus, so listeners can subscribe to a single connection or to the whole fleet.
+ * Subscribing to a super class (e.g. Event) receives all events of its subclasses.
+ *
+ * Listeners without an Executor are called synchronously on the NetworkClient
+ * thread and should return quickly. Listeners with an Executor receive a detached
+ * copy of flyweight views. Listeners doing slow work (database writes,
+ * HTTP calls, ...) should be subscribed with an Executor of their own.
+ */
+public class EventBus
+{
+    private static class Subscription
+    {
+        final EventListener<Event> listener;
+        final Executor executor;
+
+        @SuppressWarnings("unchecked")
+        Subscription (EventListener<?> listener, Executor executor)
+        {
+            this.listener = (EventListener<Event>) listener;
+            this.executor = executor;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(EventBus.class);
+    private final ConcurrentHashMap<Class<?>, List<Subscription>> subscriptions = new ConcurrentHashMap<Class<?>, List<Subscription>>();
+    private volatile EventBus parent = null;
+
+    public EventBus () {}
+
+    /**
+     * Constructor.
+     * @param parent Bus that receives all events published on this bus as well.
+     */
+    public EventBus (EventBus parent)
+    {
+        this.parent = parent;
+    }
+
+    public EventBus getParent ()
+    {
+        return parent;
+    }
+
+    /**
+     * Forward all events published on this bus to another bus as well.
+     * @param parent The bus to forward to, or null.
+     */
+    public void setParent (EventBus parent)
+    {
+        this.parent = parent;
+    }
+
+    /**
+     * Subscribe a listener to be called synchronously.
+     * @param type Type of the events to listen to.
+     * @param listener The listener.
+     */
+    public <E extends Event> void subscribe (Class<E> type, EventListener<? super E> listener)
+    {
+        subscribe(type, listener, null);
+    }
+
+    /**
+     * Subscribe a listener to be called on an Executor.
+     * @param type Type of the events to listen to.
+     * @param listener The listener.
+     * @param executor Executor to run the listener on, or null to call it synchronously.
+     */
+    public <E extends Event> void subscribe (Class<E> type, EventListener<? super E> listener, Executor executor)
+    {
+        List<Subscription> list = subscriptions.get(type);
+
+        if (list == null) {
+            subscriptions.putIfAbsent(type, new CopyOnWriteArrayList<Subscription>());
+            list = subscriptions.get(type);
+        }
+
+        list.add(new Subscription(listener, executor));
+    }
+
+    /**
+     * Remove all subscriptions of a listener for the given type.
+     * @param type Type of the events the listener was subscribed to.
+     * @param listener The listener.
+     */
+    public void unsubscribe (Class<? extends Event> type, EventListener<?> listener)
+    {
+        List<Subscription> list = subscriptions.get(type);
+
+        if (list == null) {
+            return;
+        }
+
+        for (Subscription s : list) {
+            if (s.listener == listener) {
+                list.remove(s);
+            }
+        }
+    }
+
+    /**
+     * Check if anybody listens to events of the given type, on this bus or its parents.
+     * @param type Type of the events.
+     * @return true if there is at least one listener.
+     */
+    public boolean hasSubscribers (Class<? extends Event> type)
+    {
+        for (Class<?> c = type; c != null && Event.class.isAssignableFrom(c); c = c.getSuperclass()) {
+            List<Subscription> list = subscriptions.get(c);
+
+            if (list != null && !list.isEmpty()) {
+                return true;
+            }
+        }
+
+        return parent != null && parent.hasSubscribers(type);
+    }
+
+    /**
+     * Publish an event to all listeners of its type and super types, then to the parent bus.
+     * @param event The event to publish.
+     */
+    public void publish (Event event)
+    {
+        for (Class<?> c = event.getClass(); c != null && Event.class.isAssignableFrom(c); c = c.getSuperclass()) {
+            List<Subscription> list = subscriptions.get(c);
+
+            if (list == null) {
+                continue;
+            }
+
+            for (Subscription s : list) {
+                deliver(s, event);
+            }
+        }
+
+        EventBus p = parent;
+        if (p != null) {
+            p.publish(event);
+        }
+    }
+
+    private void deliver (final Subscription s, Event event)
+    {
+        if (s.executor == null) {
+            call(s.listener, event);
+            return;
+        }
+
+        /* the listener runs after the dispatch, flyweight views would be gone by then */
+        final Event detached = event.detach();
+
+        try {
+            s.executor.execute(new Runnable()
+            {
+                @Override
+                public void run ()
+                {
+                    call(s.listener, detached);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            log.error("Dropped {}, executor rejected it", event.getClass().getSimpleName());
+        }
+    }
+
+    private void call (EventListener<Event> listener, Event event)
+    {
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException ex) {
+            log.error("Listener failed handling " + event.getClass().getSimpleName(), ex);
+        }
+    }
+}
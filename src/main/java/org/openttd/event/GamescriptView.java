@@ -0,0 +1,92 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.event;
+
+import org.openttd.OpenTTD;
+import org.openttd.gamescript.JsonReader;
+import org.openttd.network.Packet;
+
+/**
+ * Flyweight view on a SERVER_GAMESCRIPT packet, the JSON is read straight from the Packet.
+ * @see PacketView
+ * @see org.openttd.gamescript.GamescriptRouter
+ */
+public class GamescriptView extends PacketView
+{
+    private static final int POS_JSON = Packet.POS_PAYLOAD;
+
+    private final JsonReader reader = new JsonReader();
+    private int posEnd = -1;
+
+    public GamescriptView (OpenTTD openttd)
+    {
+        super(openttd);
+    }
+
+    @Override
+    protected void reset ()
+    {
+        this.posEnd = -1;
+    }
+
+    /**
+     * @return A JsonReader at the start of the JSON. The view has a single
+     *         reader, every call rewinds it.
+     */
+    public JsonReader reader ()
+    {
+        this.reader.wrap(packet(), POS_JSON, posEnd());
+
+        return this.reader;
+    }
+
+    /**
+     * @return The JSON, decoded into a new String.
+     */
+    public String getJson ()
+    {
+        return packet().getString(POS_JSON, posEnd());
+    }
+
+    /**
+     * @return Length of the JSON in bytes.
+     */
+    public int getJsonLength ()
+    {
+        return posEnd() - POS_JSON;
+    }
+
+    private int posEnd ()
+    {
+        if (this.posEnd < 0) {
+            this.posEnd = packet().getStringEnd(POS_JSON);
+        }
+
+        return this.posEnd;
+    }
+
+    @Override
+    public GamescriptView copy ()
+    {
+        GamescriptView view = new GamescriptView(openttd);
+        view.wrap(packet().copy());
+
+        return view;
+    }
+}
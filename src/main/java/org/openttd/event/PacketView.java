@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.event;
+
+import org.openttd.OpenTTD;
+import org.openttd.network.Packet;
+
+/**
+ * Flyweight view on a received Packet, decoding fields on demand.
+ *
+ * A connection reuses a single instance per view type, so a view is only
+ * valid while it is being dispatched. Use copy() to retain it. Views are only
+ * published on the EventBus, there is no OpenTTD callback for them.
+ */
+public abstract class PacketView extends Event
+{
+    private Packet packet = null;
+
+    protected PacketView (OpenTTD openttd)
+    {
+        super(openttd);
+    }
+
+    /**
+     * Point the view at a Packet. Used by the NetworkClient.
+     * @param p The Packet to read from.
+     */
+    public void wrap (Packet p)
+    {
+        this.packet = p;
+        this.reset();
+    }
+
+    /**
+     * Detach the view from its Packet, once the dispatch has finished.
+     */
+    public void release ()
+    {
+        this.packet = null;
+    }
+
+    /**
+     * @return The Packet the view reads from.
+     * @throws IllegalStateException if the view is used after its dispatch.
+     */
+    protected Packet packet ()
+    {
+        if (this.packet == null) {
+            throw new IllegalStateException("View used outside of its dispatch, use copy() to retain it");
+        }
+
+        return this.packet;
+    }
+
+    /**
+     * Forget cached offsets of the previous Packet.
+     */
+    protected void reset () {}
+
+    /**
+     * @return A view on a private copy of the Packet, valid for as long as it is needed.
+     */
+    public abstract PacketView copy ();
+
+    @Override
+    public Event detach ()
+    {
+        return this.copy();
+    }
+
+    @Override
+    public void deliver (OpenTTD openttd)
+    {
+        /* views are only published on the EventBus */
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.event;
+
+import org.openttd.OpenTTD;
+import org.openttd.enums.PauseMode;
+
+/**
+ * The game has been paused or unpaused, transformed from a CmdPause DoCommand.
+ */
+public class PauseEvent extends Event
+{
+    /** The type of the pause action. */
+    public final PauseMode pauseMode;
+    /** true if paused, false if unpaused. */
+    public final boolean paused;
+
+    public PauseEvent (OpenTTD openttd, PauseMode pauseMode, boolean paused)
+    {
+        super(openttd);
+
+        this.pauseMode = pauseMode;
+        this.paused    = paused;
+    }
+
+    @Override
+    public void deliver (OpenTTD openttd)
+    {
+        openttd.onPause(pauseMode, paused);
+    }
+}
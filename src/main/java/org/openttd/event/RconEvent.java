@@ -0,0 +1,44 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.event;
+
+import org.openttd.OpenTTD;
+import org.openttd.RconBuffer;
+
+/**
+ * The answer to an rcon command we have sent.
+ */
+public class RconEvent extends Event
+{
+    /** The complete output of the command. */
+    public final RconBuffer rconBuffer;
+
+    public RconEvent (OpenTTD openttd, RconBuffer rconBuffer)
+    {
+        super(openttd);
+
+        this.rconBuffer = rconBuffer;
+    }
+
+    @Override
+    public void deliver (OpenTTD openttd)
+    {
+        openttd.onRcon(rconBuffer);
+    }
+}
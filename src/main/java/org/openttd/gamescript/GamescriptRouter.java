@@ -0,0 +1,158 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.gamescript;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.openttd.event.EventListener;
+import org.openttd.event.GamescriptView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes GameScript messages to handlers by the value of a member of the
+ * top level object, e.g. "event". Only the top level of the message is
+ * scanned to find the value, handlers read the rest with the JsonReader of
+ * the view.
+ *
+ * Subscribe the router to the EventBus of a connection, or to a bus shared
+ * by several connections:
+ * <pre>
+ * GamescriptRouter router = new GamescriptRouter("event");
+ * router.register("goal_completed", listener);
+ * openttd.getEventBus().subscribe(GamescriptView.class, router);
+ * </pre>
+ */
+public class GamescriptRouter implements EventListener<GamescriptView>
+{
+    private final Logger log = LoggerFactory.getLogger(GamescriptRouter.class);
+    private final String key;
+    private final ConcurrentHashMap<String, List<EventListener<? super GamescriptView>>> handlers = new ConcurrentHashMap<String, List<EventListener<? super GamescriptView>>>();
+    private volatile EventListener<? super GamescriptView> fallback = null;
+
+    /**
+     * @param key Name of the member whose string value selects the handlers.
+     */
+    public GamescriptRouter (String key)
+    {
+        this.key = key;
+    }
+
+    public String getKey ()
+    {
+        return key;
+    }
+
+    /**
+     * Call a handler for all messages with the given value.
+     * @param value Value of the key member.
+     * @param handler The handler.
+     */
+    public void register (String value, EventListener<? super GamescriptView> handler)
+    {
+        List<EventListener<? super GamescriptView>> list = handlers.get(value);
+
+        if (list == null) {
+            handlers.putIfAbsent(value, new CopyOnWriteArrayList<EventListener<? super GamescriptView>>());
+            list = handlers.get(value);
+        }
+
+        list.add(handler);
+    }
+
+    /**
+     * Remove a handler registered for the given value.
+     * @param value Value of the key member.
+     * @param handler The handler.
+     */
+    public void unregister (String value, EventListener<?> handler)
+    {
+        List<EventListener<? super GamescriptView>> list = handlers.get(value);
+
+        if (list != null) {
+            list.remove(handler);
+        }
+    }
+
+    /**
+     * @param handler Called for messages no handler is registered for, or null to drop them.
+     */
+    public void setFallback (EventListener<? super GamescriptView> handler)
+    {
+        this.fallback = handler;
+    }
+
+    @Override
+    public void onEvent (GamescriptView view)
+    {
+        List<EventListener<? super GamescriptView>> list = null;
+
+        try {
+            String value = route(view.reader());
+
+            if (value != null) {
+                list = handlers.get(value);
+            }
+        } catch (IllegalArgumentException ex) {
+            log.warn("Malformed GameScript message: {}", ex.getMessage());
+        } catch (IllegalStateException ex) {
+            log.warn("Malformed GameScript message: {}", ex.getMessage());
+        }
+
+        if (list == null || list.isEmpty()) {
+            EventListener<? super GamescriptView> f = fallback;
+
+            if (f != null) {
+                f.onEvent(view);
+            }
+            return;
+        }
+
+        for (EventListener<? super GamescriptView> handler : list) {
+            handler.onEvent(view);
+        }
+    }
+
+    /**
+     * Find the value of the key member of the top level object.
+     * @param reader Reader at the start of the message.
+     * @return The value, or null if the message is not an object or has no string member named key.
+     */
+    protected String route (JsonReader reader)
+    {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return null;
+        }
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            if (reader.nameEquals(key)) {
+                reader.skipName();
+                return (reader.peek() == JsonToken.STRING) ? reader.nextString() : null;
+            }
+
+            reader.skipName();
+            reader.skipValue();
+        }
+
+        return null;
+    }
+}
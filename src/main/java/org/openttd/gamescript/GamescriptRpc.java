@@ -0,0 +1,435 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.gamescript;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openttd.OpenTTD;
+import org.openttd.StringFunc;
+import org.openttd.event.EventListener;
+import org.openttd.event.GamescriptView;
+import org.openttd.network.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request/response calls into the GameScript of a connection.
+ *
+ * Every request is a JSON object, it is sent with an "id" member added in
+ * front. The GameScript is expected to answer with an object carrying the
+ * same id. Requests made within the linger time are sent together as
+ * {"batch":[...]} in as few packets as possible, the GameScript may answer
+ * a batch with a batch of replies the same way.
+ *
+ * Replies are published on the EventBus like any other GameScript message,
+ * so routers and callbacks see them as well.
+ * <pre>
+ * GamescriptRpc rpc = new GamescriptRpc(openttd);
+ * Future&lt;String&gt; reply = rpc.call("{\"action\":\"score\",\"company\":3}");
+ * </pre>
+ */
+public class GamescriptRpc implements EventListener<GamescriptView>
+{
+    /** Member carrying the correlation id. */
+    public static final String ID_KEY = "id";
+
+    /** Member carrying the array of a batch. */
+    public static final String BATCH_KEY = "batch";
+
+    /** Maximum length in bytes of the JSON in a single packet. */
+    public static final int MAX_JSON_LENGTH = Packet.SEND_MTU - Packet.POS_PAYLOAD - 1;
+
+    private static final String BATCH_HEAD = "{\"" + BATCH_KEY + "\":[";
+    private static final String BATCH_TAIL = "]}";
+
+    private static final Runnable NOOP = new Runnable()
+    {
+        @Override
+        public void run () {}
+    };
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread (Runnable r)
+        {
+            Thread t = new Thread(r, "joan-gamescript");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Completed with the raw JSON of the matching reply.
+     */
+    private class Call extends FutureTask<String>
+    {
+        final int id;
+        final String json;
+        ScheduledFuture<?> timeout;
+
+        Call (int id, String json)
+        {
+            super(NOOP, null);
+            this.id   = id;
+            this.json = json;
+        }
+
+        void complete (String reply)
+        {
+            set(reply);
+        }
+
+        void fail (Throwable t)
+        {
+            setException(t);
+        }
+
+        @Override
+        protected void done ()
+        {
+            calls.remove(this.id);
+
+            if (this.timeout != null) {
+                this.timeout.cancel(false);
+            }
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(GamescriptRpc.class);
+    private final OpenTTD openttd;
+    private final ConcurrentHashMap<Integer, Call> calls = new ConcurrentHashMap<Integer, Call>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    /* requests not sent yet, guarded by this */
+    private List<Call> queue = new ArrayList<Call>();
+    private int queuedLength = 0;
+    private boolean scheduled = false;
+
+    private volatile long timeout = TimeUnit.SECONDS.toNanos(10);
+    private volatile long linger  = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final Runnable flush = new Runnable()
+    {
+        @Override
+        public void run ()
+        {
+            flush();
+        }
+    };
+
+    /**
+     * Constructor, subscribes to the GameScript messages of the connection.
+     * @param openttd The connection to call the GameScript of.
+     */
+    public GamescriptRpc (OpenTTD openttd)
+    {
+        this.openttd = openttd;
+        openttd.getEventBus().subscribe(GamescriptView.class, this);
+    }
+
+    /**
+     * @param time Time to wait for a reply before the call fails with a TimeoutException.
+     * @param unit Unit of the time.
+     */
+    public void setTimeout (long time, TimeUnit unit)
+    {
+        this.timeout = unit.toNanos(time);
+    }
+
+    /**
+     * @param time Time to wait for further requests to send in the same batch, 0 to send right away.
+     * @param unit Unit of the time.
+     */
+    public void setLinger (long time, TimeUnit unit)
+    {
+        this.linger = unit.toNanos(time);
+    }
+
+    /**
+     * Call the GameScript.
+     * @param json The request, a JSON object without an id.
+     * @return Completed with the raw JSON of the reply, failed with a TimeoutException
+     *         if there is no reply in time or an IOException if sending failed.
+     * @throws IllegalArgumentException if the request is not an object or too long.
+     */
+    public Future<String> call (String json)
+    {
+        String body = json.trim();
+
+        if (!body.startsWith("{") || !body.endsWith("}")) {
+            throw new IllegalArgumentException("A GameScript request has to be a JSON object");
+        }
+
+        int id = nextId.getAndIncrement() & Integer.MAX_VALUE;
+        String rest = body.substring(1).trim();
+        String request = "{\"" + ID_KEY + "\":" + id + (rest.equals("}") ? "" : ",") + rest;
+        int length = StringFunc.utf8Length(request);
+
+        if (length > MAX_JSON_LENGTH) {
+            throw new IllegalArgumentException("GameScript request of " + length + " bytes exceeds " + MAX_JSON_LENGTH + " bytes");
+        }
+
+        final Call call = new Call(id, request);
+        calls.put(id, call);
+
+        call.timeout = executor.schedule(new Runnable()
+        {
+            @Override
+            public void run ()
+            {
+                call.fail(new TimeoutException("No reply from the GameScript to request " + call.id));
+            }
+        }, this.timeout, TimeUnit.NANOSECONDS);
+
+        synchronized (this) {
+            this.queue.add(call);
+            this.queuedLength += length + 1;
+
+            /* a full packet does not need to wait for more */
+            boolean full = batchLength() >= MAX_JSON_LENGTH;
+
+            if (!this.scheduled || full) {
+                this.scheduled = true;
+                executor.schedule(this.flush, full ? 0 : this.linger, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        return call;
+    }
+
+    /**
+     * @return Number of calls waiting for a reply.
+     */
+    public int getPending ()
+    {
+        return calls.size();
+    }
+
+    /**
+     * Stop listening for replies and fail all calls still waiting.
+     */
+    public void close ()
+    {
+        openttd.getEventBus().unsubscribe(GamescriptView.class, this);
+
+        for (Call call : calls.values()) {
+            call.fail(new IOException("GameScript RPC closed"));
+        }
+    }
+
+    private int batchLength ()
+    {
+        return BATCH_HEAD.length() + this.queuedLength + BATCH_TAIL.length();
+    }
+
+    /**
+     * Send the queued requests, as few packets as possible. Runs on the executor
+     * thread without holding the lock, as callbacks may make calls.
+     */
+    private void flush ()
+    {
+        List<Call> pending;
+
+        synchronized (this) {
+            pending = this.queue;
+            this.queue = new ArrayList<Call>();
+            this.queuedLength = 0;
+            this.scheduled = false;
+        }
+
+        List<Call> batch = new ArrayList<Call>();
+        int length = BATCH_HEAD.length() + BATCH_TAIL.length();
+
+        for (Call call : pending) {
+            if (call.isDone()) {
+                continue;
+            }
+
+            int l = StringFunc.utf8Length(call.json) + (batch.isEmpty() ? 0 : 1);
+
+            if (!batch.isEmpty() && length + l > MAX_JSON_LENGTH) {
+                send(batch);
+                batch  = new ArrayList<Call>();
+                length = BATCH_HEAD.length() + BATCH_TAIL.length();
+                l = StringFunc.utf8Length(call.json);
+            }
+
+            batch.add(call);
+            length += l;
+        }
+
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private void send (List<Call> batch)
+    {
+        String json;
+
+        if (batch.size() == 1) {
+            json = batch.get(0).json;
+        } else {
+            StringBuilder sb = new StringBuilder(MAX_JSON_LENGTH);
+            sb.append(BATCH_HEAD);
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(batch.get(i).json);
+            }
+
+            json = sb.append(BATCH_TAIL).toString();
+        }
+
+        try {
+            if (!openttd.getNetwork().isConnected()) {
+                throw new IOException("Not connected");
+            }
+
+            openttd.getNetwork().sendAdminGamescript(json);
+        } catch (IOException ex) {
+            failBatch(batch, ex);
+        } catch (RuntimeException ex) {
+            /* e.g. a full outbound queue or a string rejected by the packet */
+            failBatch(batch, ex);
+        }
+    }
+
+    private void failBatch (List<Call> batch, Exception ex)
+    {
+        log.warn("Failed sending {} GameScript requests: {}", batch.size(), ex.getMessage());
+
+        for (Call call : batch) {
+            call.fail(ex);
+        }
+    }
+
+    @Override
+    public void onEvent (GamescriptView view)
+    {
+        if (calls.isEmpty()) {
+            return;
+        }
+
+        JsonReader reader = view.reader();
+
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return;
+            }
+
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                if (reader.nameEquals(ID_KEY)) {
+                    reader.skipName();
+                    int id = readId(reader);
+
+                    if (calls.containsKey(id)) {
+                        reply(id, view.getJson());
+                    }
+                } else if (reader.nameEquals(BATCH_KEY)) {
+                    reader.skipName();
+                    readBatch(reader);
+                } else {
+                    reader.skipName();
+                    reader.skipValue();
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            log.warn("Malformed GameScript reply: {}", ex.getMessage());
+        } catch (IllegalStateException ex) {
+            log.warn("Malformed GameScript reply: {}", ex.getMessage());
+        }
+    }
+
+    private void readBatch (JsonReader reader)
+    {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+
+        reader.beginArray();
+
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            int from = reader.valueOffset();
+            int id   = -1;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nameEquals(ID_KEY)) {
+                    reader.skipName();
+                    id = readId(reader);
+                } else {
+                    reader.skipName();
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (id >= 0 && calls.containsKey(id)) {
+                reply(id, reader.getText(from, reader.getOffset()));
+            }
+        }
+
+        reader.endArray();
+    }
+
+    /**
+     * @return The id, or -1 if it is not a number.
+     */
+    private static int readId (JsonReader reader)
+    {
+        if (reader.peek() != JsonToken.NUMBER) {
+            reader.skipValue();
+            return -1;
+        }
+
+        return reader.nextInt();
+    }
+
+    private void reply (int id, String json)
+    {
+        Call call = calls.get(id);
+
+        if (call != null) {
+            call.complete(json);
+        }
+    }
+}
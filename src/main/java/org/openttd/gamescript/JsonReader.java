@@ -0,0 +1,685 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.gamescript;
+
+import org.openttd.network.Packet;
+
+/**
+ * Streaming JSON reader working directly on the bytes of a Packet.
+ *
+ * The reader pulls one token at a time and does not build a tree. Names and
+ * strings are only decoded when asked for, nameEquals() and stringEquals()
+ * compare them with the raw bytes, skipValue() passes over whole objects and
+ * arrays. A single instance can be reused for any number of documents.
+ *
+ * Malformed input throws an IllegalArgumentException, asking for a token
+ * other than the next one throws an IllegalStateException.
+ */
+public class JsonReader
+{
+    /** Maximum nesting of objects and arrays. */
+    public static final int MAX_DEPTH = 64;
+
+    /* what the reader is in the middle of */
+    private static final int EMPTY_DOCUMENT    = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY       = 2;
+    private static final int NONEMPTY_ARRAY    = 3;
+    private static final int EMPTY_OBJECT      = 4;
+    private static final int DANGLING_NAME     = 5;
+    private static final int NONEMPTY_OBJECT   = 6;
+
+    private Packet packet;
+    private int start;
+    private int end;
+    private int pos;
+
+    private final int[] stack = new int[MAX_DEPTH + 1];
+    private int depth;
+
+    private JsonToken peeked;
+
+    /* bounds of the peeked name, string or number, strings without the quotes */
+    private int valueStart;
+    private int valueEnd;
+    private boolean escaped;
+    private boolean bool;
+
+    public JsonReader () {}
+
+    /**
+     * @param p The Packet to read from.
+     * @param start Index of the first byte of the document.
+     * @param end Index after the last byte of the document.
+     */
+    public JsonReader (Packet p, int start, int end)
+    {
+        this.wrap(p, start, end);
+    }
+
+    /**
+     * Start reading a new document.
+     * @param p The Packet to read from.
+     * @param start Index of the first byte of the document.
+     * @param end Index after the last byte of the document.
+     */
+    public void wrap (Packet p, int start, int end)
+    {
+        this.packet   = p;
+        this.start    = start;
+        this.end      = end;
+        this.pos      = start;
+        this.depth    = 1;
+        this.stack[0] = EMPTY_DOCUMENT;
+        this.peeked   = null;
+    }
+
+    /**
+     * @return The kind of the next token, without consuming it.
+     */
+    public JsonToken peek ()
+    {
+        if (this.peeked != null) {
+            return this.peeked;
+        }
+
+        int c;
+
+        switch (this.stack[this.depth - 1]) {
+            case EMPTY_ARRAY:
+                this.stack[this.depth - 1] = NONEMPTY_ARRAY;
+                if (skipWhitespace() == ']') {
+                    this.pos++;
+                    return this.peeked = JsonToken.END_ARRAY;
+                }
+                break;
+
+            case NONEMPTY_ARRAY:
+                c = skipWhitespace();
+                if (c == ']') {
+                    this.pos++;
+                    return this.peeked = JsonToken.END_ARRAY;
+                }
+                consume(',');
+                break;
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = skipWhitespace();
+                if (c == '}') {
+                    this.pos++;
+                    return this.peeked = JsonToken.END_OBJECT;
+                }
+                if (this.stack[this.depth - 1] == NONEMPTY_OBJECT) {
+                    consume(',');
+                    c = skipWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                this.stack[this.depth - 1] = DANGLING_NAME;
+                readString();
+                return this.peeked = JsonToken.NAME;
+
+            case DANGLING_NAME:
+                consume(':');
+                this.stack[this.depth - 1] = NONEMPTY_OBJECT;
+                break;
+
+            case EMPTY_DOCUMENT:
+                this.stack[this.depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+
+            case NONEMPTY_DOCUMENT:
+                if (skipWhitespace() != -1) {
+                    throw syntaxError("Data after the end of the document");
+                }
+                return this.peeked = JsonToken.END_DOCUMENT;
+        }
+
+        c = skipWhitespace();
+
+        switch (c) {
+            case '{':
+                this.pos++;
+                return this.peeked = JsonToken.BEGIN_OBJECT;
+
+            case '[':
+                this.pos++;
+                return this.peeked = JsonToken.BEGIN_ARRAY;
+
+            case '"':
+                readString();
+                return this.peeked = JsonToken.STRING;
+
+            case 't':
+                readLiteral("true");
+                this.bool = true;
+                return this.peeked = JsonToken.BOOLEAN;
+
+            case 'f':
+                readLiteral("false");
+                this.bool = false;
+                return this.peeked = JsonToken.BOOLEAN;
+
+            case 'n':
+                readLiteral("null");
+                return this.peeked = JsonToken.NULL;
+
+            case -1:
+                throw syntaxError("Unexpected end of the document");
+
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber();
+                    return this.peeked = JsonToken.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * @return true if the current object or array has another element.
+     */
+    public boolean hasNext ()
+    {
+        JsonToken t = peek();
+
+        return t != JsonToken.END_OBJECT && t != JsonToken.END_ARRAY && t != JsonToken.END_DOCUMENT;
+    }
+
+    public void beginObject ()
+    {
+        expect(JsonToken.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject ()
+    {
+        expect(JsonToken.END_OBJECT);
+        this.depth--;
+    }
+
+    public void beginArray ()
+    {
+        expect(JsonToken.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray ()
+    {
+        expect(JsonToken.END_ARRAY);
+        this.depth--;
+    }
+
+    /**
+     * @return The name of the next object member, decoded into a String.
+     */
+    public String nextName ()
+    {
+        expect(JsonToken.NAME);
+        return decode();
+    }
+
+    /**
+     * Consume the name of the next object member without decoding it.
+     */
+    public void skipName ()
+    {
+        expect(JsonToken.NAME);
+    }
+
+    /**
+     * Compare the name of the next object member without decoding or consuming it.
+     * @param s String to compare with.
+     * @return true if the name equals s.
+     */
+    public boolean nameEquals (String s)
+    {
+        return peek() == JsonToken.NAME && rawEquals(s);
+    }
+
+    /**
+     * @return The next string, or the text of the next number, decoded into a String.
+     */
+    public String nextString ()
+    {
+        JsonToken t = peek();
+
+        if (t == JsonToken.NUMBER) {
+            this.peeked = null;
+            return this.packet.getString(this.valueStart, this.valueEnd);
+        }
+
+        expect(JsonToken.STRING);
+        return decode();
+    }
+
+    /**
+     * Compare the next string without decoding or consuming it.
+     * @param s String to compare with.
+     * @return true if the next token is a string equal to s.
+     */
+    public boolean stringEquals (String s)
+    {
+        return peek() == JsonToken.STRING && rawEquals(s);
+    }
+
+    public boolean nextBoolean ()
+    {
+        expect(JsonToken.BOOLEAN);
+        return this.bool;
+    }
+
+    public void nextNull ()
+    {
+        expect(JsonToken.NULL);
+    }
+
+    /**
+     * @return The next number, which has to be an integer within the range of long.
+     */
+    public long nextLong ()
+    {
+        expect(JsonToken.NUMBER);
+
+        int i = this.valueStart;
+        boolean negative = (at(i) == '-');
+
+        if (negative) {
+            i++;
+        }
+
+        if (i == this.valueEnd) {
+            throw syntaxError("Malformed number");
+        }
+
+        /* accumulate negative, as Long.MIN_VALUE has no positive counterpart */
+        long result = 0;
+
+        for (; i < this.valueEnd; i++) {
+            int digit = at(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not an integer: " + this.packet.getString(this.valueStart, this.valueEnd));
+            }
+
+            if (result < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("Out of range: " + this.packet.getString(this.valueStart, this.valueEnd));
+            }
+
+            result = result * 10 - digit;
+        }
+
+        if (!negative) {
+            if (result == Long.MIN_VALUE) {
+                throw new NumberFormatException("Out of range: " + this.packet.getString(this.valueStart, this.valueEnd));
+            }
+            result = -result;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The next number, which has to be an integer within the range of int.
+     */
+    public int nextInt ()
+    {
+        long l = nextLong();
+
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Out of range: " + l);
+        }
+
+        return (int) l;
+    }
+
+    public double nextDouble ()
+    {
+        expect(JsonToken.NUMBER);
+        return Double.parseDouble(this.packet.getString(this.valueStart, this.valueEnd));
+    }
+
+    /**
+     * Skip the next value, including all members or elements of an object or array.
+     */
+    public void skipValue ()
+    {
+        int nesting = 0;
+
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    nesting++;
+                    break;
+
+                case BEGIN_ARRAY:
+                    beginArray();
+                    nesting++;
+                    break;
+
+                case END_OBJECT:
+                    if (nesting == 0) {
+                        throw new IllegalStateException("Expected a value but was END_OBJECT");
+                    }
+                    endObject();
+                    nesting--;
+                    break;
+
+                case END_ARRAY:
+                    if (nesting == 0) {
+                        throw new IllegalStateException("Expected a value but was END_ARRAY");
+                    }
+                    endArray();
+                    nesting--;
+                    break;
+
+                case END_DOCUMENT:
+                    throw new IllegalStateException("Expected a value but was END_DOCUMENT");
+
+                default:
+                    this.peeked = null;
+            }
+        } while (nesting > 0);
+    }
+
+    /**
+     * @return Position of the reader, relative to the start of the document.
+     */
+    public int getOffset ()
+    {
+        return this.pos - this.start;
+    }
+
+    /**
+     * @return Offset of the first character of the next value, relative to the start of the document.
+     */
+    public int valueOffset ()
+    {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+            case BEGIN_ARRAY:
+                return this.pos - 1 - this.start;
+
+            case STRING:
+                return this.valueStart - 1 - this.start;
+
+            case NUMBER:
+                return this.valueStart - this.start;
+
+            case BOOLEAN:
+                return this.pos - (this.bool ? 4 : 5) - this.start;
+
+            case NULL:
+                return this.pos - 4 - this.start;
+
+            default:
+                throw new IllegalStateException("Expected a value but was " + this.peeked + " at offset " + getOffset());
+        }
+    }
+
+    /**
+     * Decode a part of the document as is, e.g. a value between valueOffset() and getOffset() after skipping it.
+     * @param from Offset of the first character.
+     * @param to Offset after the last character.
+     * @return The raw JSON text.
+     */
+    public String getText (int from, int to)
+    {
+        if (from < 0 || to < from || this.start + to > this.end) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " outside of the document");
+        }
+
+        return this.packet.getString(this.start + from, this.start + to);
+    }
+
+    private void expect (JsonToken token)
+    {
+        JsonToken t = peek();
+
+        if (t != token) {
+            throw new IllegalStateException("Expected " + token + " but was " + t + " at offset " + getOffset());
+        }
+
+        this.peeked = null;
+    }
+
+    private void push (int scope)
+    {
+        if (this.depth > MAX_DEPTH) {
+            throw syntaxError("Nesting deeper than " + MAX_DEPTH);
+        }
+
+        this.stack[this.depth++] = scope;
+    }
+
+    private int at (int index)
+    {
+        return this.packet.getUint8(index);
+    }
+
+    /**
+     * @return The next character that is not whitespace, or -1 at the end of the document.
+     */
+    private int skipWhitespace ()
+    {
+        while (this.pos < this.end) {
+            int c = at(this.pos);
+
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+
+            this.pos++;
+        }
+
+        return -1;
+    }
+
+    private void consume (char c)
+    {
+        int next = skipWhitespace();
+
+        if (next == -1) {
+            throw syntaxError("Unexpected end of the document");
+        }
+
+        if (next != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+
+        this.pos++;
+    }
+
+    /**
+     * Find the bounds of the string at pos, the opening quote included.
+     */
+    private void readString ()
+    {
+        this.pos++;
+        this.valueStart = this.pos;
+        this.escaped    = false;
+
+        while (this.pos < this.end) {
+            int c = at(this.pos);
+
+            if (c == '"') {
+                this.valueEnd = this.pos++;
+                return;
+            }
+
+            if (c == '\\') {
+                this.escaped = true;
+                this.pos += 2;
+                continue;
+            }
+
+            if (c < 0x20) {
+                throw syntaxError("Control character in string");
+            }
+
+            this.pos++;
+        }
+
+        throw syntaxError("Unterminated string");
+    }
+
+    private void readLiteral (String literal)
+    {
+        int len = literal.length();
+
+        for (int i = 0; i < len; i++) {
+            if (this.pos + i >= this.end || at(this.pos + i) != literal.charAt(i)) {
+                throw syntaxError("Unexpected literal");
+            }
+        }
+
+        this.pos += len;
+    }
+
+    private void readNumber ()
+    {
+        this.valueStart = this.pos;
+
+        while (this.pos < this.end) {
+            int c = at(this.pos);
+
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+                break;
+            }
+
+            this.pos++;
+        }
+
+        this.valueEnd = this.pos;
+    }
+
+    /**
+     * Compare the peeked name or string with s, decoding it only if it has
+     * escapes or s is not plain ASCII. Does not consume the token.
+     */
+    private boolean rawEquals (String s)
+    {
+        int len = s.length();
+
+        if (this.escaped) {
+            return s.equals(decode());
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) >= 0x80) {
+                return s.equals(this.packet.getString(this.valueStart, this.valueEnd));
+            }
+        }
+
+        if (this.valueEnd - this.valueStart != len) {
+            return false;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (at(this.valueStart + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The peeked name or string, with its escapes resolved.
+     */
+    private String decode ()
+    {
+        if (!this.escaped) {
+            return this.packet.getString(this.valueStart, this.valueEnd);
+        }
+
+        StringBuilder sb = new StringBuilder(this.valueEnd - this.valueStart);
+        int run = this.valueStart;
+        int i   = this.valueStart;
+
+        while (i < this.valueEnd) {
+            if (at(i) != '\\') {
+                i++;
+                continue;
+            }
+
+            if (i > run) {
+                sb.append(this.packet.getString(run, i));
+            }
+
+            int c = at(i + 1);
+            i += 2;
+
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append((char) c);
+                    break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 > this.valueEnd) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    sb.append((char) hex(i));
+                    i += 4;
+                    break;
+                default:
+                    throw syntaxError("Unknown escape '\\" + (char) c + "'");
+            }
+
+            run = i;
+        }
+
+        if (i > run) {
+            sb.append(this.packet.getString(run, i));
+        }
+
+        return sb.toString();
+    }
+
+    private int hex (int index)
+    {
+        int result = 0;
+
+        for (int i = index; i < index + 4; i++) {
+            int digit = Character.digit(at(i), 16);
+
+            if (digit < 0) {
+                throw syntaxError("Malformed unicode escape");
+            }
+
+            result = (result << 4) | digit;
+        }
+
+        return result;
+    }
+
+    private IllegalArgumentException syntaxError (String message)
+    {
+        return new IllegalArgumentException(message + " at offset " + getOffset() + " of the JSON document");
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.metrics;
+
+/**
+ * Derives the effective game speed of a server from its SERVER_DATE packets.
+ *
+ * Register ADMIN_UPDATE_DATE at ADMIN_FREQUENCY_DAILY for the best resolution,
+ * weekly or monthly updates work as well. No additional polling is done, the
+ * replies to polls of the date mark no day boundary and are not measured.
+ *
+ * The pause state is only learned from CmdPause in CMD_LOGGING, the admin
+ * protocol does not tell whether a game is paused already. A server that is
+ * paused when we connect is reported as running until it is unpaused, as it
+ * sends no date updates meanwhile the speed stays unknown.
+ */
+public class GameSpeedMonitor
+{
+    /** A game day lasts 74 ticks of 30 milliseconds at normal speed. */
+    public static final long NOMINAL_MS_PER_DAY = 74 * 30;
+
+    /** Below this fraction of the nominal speed the server is considered slow. */
+    public static final double SLOW_THRESHOLD = 0.9;
+
+    /** The server is considered stalled after this many expected intervals without a date. */
+    private static final int STALL_FACTOR = 3;
+
+    /** Weight of the latest interval in the moving average. */
+    private static final double ALPHA = 0.2;
+
+    private long lastDate  = -1;
+    private long lastNanos = 0;
+    private boolean exact  = false;
+    private volatile long   lastDeltaDays = 1;
+    private volatile long   lastSeenNanos = 0;
+    private volatile double msPerDay      = Double.NaN;
+    private volatile double lastMsPerDay  = Double.NaN;
+    private volatile boolean paused       = false;
+
+    /**
+     * A SERVER_DATE packet sent by the server at the start of a day has arrived.
+     * @param date The raw date as sent by the server (days since year 0).
+     */
+    public void dateReceived (long date)
+    {
+        dateReceived(date, false);
+    }
+
+    /**
+     * A SERVER_DATE packet has arrived.
+     * @param date The raw date as sent by the server (days since year 0).
+     * @param polled Whether it answers a poll, i.e. it may have been sent at any time of the day.
+     */
+    public synchronized void dateReceived (long date, boolean polled)
+    {
+        long now = System.nanoTime();
+        long deltaDays = date - lastDate;
+
+        /* same day, e.g. a poll answered after the daily update, keep the start of the interval */
+        if (lastDate >= 0 && deltaDays == 0) {
+            return;
+        }
+
+        lastSeenNanos = now;
+
+        /* a new day seen in the middle of it, the next interval can not be measured from here */
+        if (polled) {
+            lastDate  = date;
+            lastNanos = now;
+            exact     = false;
+            return;
+        }
+
+        /* only measure uninterrupted, forward running intervals */
+        if (lastDate >= 0 && exact && deltaDays > 0 && !paused) {
+            double ms = (now - lastNanos) / 1e6 / deltaDays;
+
+            lastMsPerDay  = ms;
+            lastDeltaDays = deltaDays;
+            msPerDay      = Double.isNaN(msPerDay) ? ms : ALPHA * ms + (1 - ALPHA) * msPerDay;
+        }
+
+        lastDate  = date;
+        lastNanos = now;
+        exact     = true;
+    }
+
+    /**
+     * The pause state of the game has changed.
+     * The running interval is discarded, as it does not reflect the game speed.
+     * @param paused Whether the game is paused now.
+     */
+    public synchronized void pauseChanged (boolean paused)
+    {
+        this.paused = paused;
+        this.lastDate = -1;
+
+        if (lastSeenNanos != 0) {
+            lastSeenNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Forget everything, e.g. when a new game is started.
+     */
+    public synchronized void reset ()
+    {
+        lastDate      = -1;
+        lastNanos     = 0;
+        exact         = false;
+        lastSeenNanos = 0;
+        lastDeltaDays = 1;
+        msPerDay      = Double.NaN;
+        lastMsPerDay  = Double.NaN;
+        paused        = false;
+    }
+
+    /**
+     * @return Moving average of the wall-clock milliseconds per game day, NaN if unknown.
+     */
+    public double getMillisPerDay ()
+    {
+        return msPerDay;
+    }
+
+    /**
+     * @return Milliseconds per game day of the most recent interval, NaN if unknown.
+     */
+    public double getLastMillisPerDay ()
+    {
+        return lastMsPerDay;
+    }
+
+    /**
+     * @return Effective speed relative to the nominal speed (1.0 is normal), NaN if unknown.
+     */
+    public double getSpeed ()
+    {
+        return NOMINAL_MS_PER_DAY / msPerDay;
+    }
+
+    /**
+     * @return true if the game is paused, as far as CmdPause has told.
+     */
+    public boolean isPaused ()
+    {
+        return paused;
+    }
+
+    /**
+     * @return true if the game runs noticeably slower than nominal.
+     */
+    public boolean isSlow ()
+    {
+        return !paused && getSpeed() < SLOW_THRESHOLD;
+    }
+
+    /**
+     * Check if the server has stopped advancing the date while not being paused.
+     * Only works once regular date updates have been observed.
+     * @return true if no date arrived for several expected intervals.
+     */
+    public boolean isStalled ()
+    {
+        if (paused || lastSeenNanos == 0 || Double.isNaN(msPerDay)) {
+            return false;
+        }
+
+        double expected = lastDeltaDays * Math.max(msPerDay, NOMINAL_MS_PER_DAY);
+
+        return (System.nanoTime() - lastSeenNanos) / 1e6 > STALL_FACTOR * expected;
+    }
+}
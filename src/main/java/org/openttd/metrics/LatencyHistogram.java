@@ -0,0 +1,107 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed bucket histogram of latencies.
+ *
+ * Recording is lock-free, reading gives a consistent enough view for scraping.
+ */
+public class LatencyHistogram
+{
+    /** Upper bounds of the buckets in milliseconds, the last bucket is unbounded. */
+    private static final long[] BOUNDS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MS.length + 1);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong count    = new AtomicLong();
+    private volatile long lastNanos   = -1;
+
+    /**
+     * Record a single measurement.
+     * @param nanos The measured latency in nanoseconds.
+     */
+    public void record (long nanos)
+    {
+        int i = 0;
+
+        /* buckets are inclusive of their upper bound, as Prometheus' le */
+        while (i < BOUNDS_MS.length && nanos > BOUNDS_MS[i] * 1000000) {
+            i++;
+        }
+
+        buckets.incrementAndGet(i);
+        sumNanos.addAndGet(nanos);
+        count.incrementAndGet();
+        lastNanos = nanos;
+    }
+
+    /**
+     * @return Number of buckets, including the unbounded one.
+     */
+    public int getBucketCount ()
+    {
+        return BOUNDS_MS.length + 1;
+    }
+
+    /**
+     * @param bucket Index of the bucket.
+     * @return Upper bound of the bucket in seconds, infinite for the last bucket.
+     */
+    public double getUpperBound (int bucket)
+    {
+        return (bucket < BOUNDS_MS.length) ? BOUNDS_MS[bucket] / 1000.0 : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param bucket Index of the bucket.
+     * @return Number of measurements in this bucket alone (not cumulative).
+     */
+    public long getBucket (int bucket)
+    {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * @return Sum of all measurements in nanoseconds.
+     */
+    public long getSumNanos ()
+    {
+        return sumNanos.get();
+    }
+
+    /**
+     * @return Number of measurements.
+     */
+    public long getCount ()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return The most recent measurement in nanoseconds, or -1 if there is none.
+     */
+    public long getLastNanos ()
+    {
+        return lastNanos;
+    }
+}
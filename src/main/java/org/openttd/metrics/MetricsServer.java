@@ -0,0 +1,364 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.openttd.Company;
+import org.openttd.OpenTTD;
+import org.openttd.enums.AdminUpdateType;
+import org.openttd.enums.PacketType;
+import org.openttd.enums.VehicleType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded HTTP listener serving the ServerMetrics of any number of
+ * connections in the Prometheus text exposition format.
+ *
+ * Scrapes only read the pre-aggregated ServerMetrics, the pools are never
+ * locked while rendering.
+ */
+public class MetricsServer implements HttpHandler
+{
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Logger log = LoggerFactory.getLogger(MetricsServer.class);
+    private final List<OpenTTD> servers = new CopyOnWriteArrayList<OpenTTD>();
+    private final InetSocketAddress address;
+
+    private HttpServer httpServer;
+
+    /**
+     * Constructor.
+     * @param port The port to listen on, on all interfaces.
+     */
+    public MetricsServer (int port)
+    {
+        this(new InetSocketAddress(port));
+    }
+
+    /**
+     * Constructor.
+     * @param address The address to listen on.
+     */
+    public MetricsServer (InetSocketAddress address)
+    {
+        this.address = address;
+    }
+
+    /**
+     * Include the metrics of a connection in the output.
+     * @param openttd The bot whose connection should be exported.
+     */
+    public void register (OpenTTD openttd)
+    {
+        if (!servers.contains(openttd)) {
+            servers.add(openttd);
+        }
+    }
+
+    /**
+     * Remove a connection from the output.
+     * @param openttd The bot to remove.
+     */
+    public void unregister (OpenTTD openttd)
+    {
+        servers.remove(openttd);
+    }
+
+    /**
+     * Start listening, the endpoint is served at /metrics.
+     * @throws IOException
+     */
+    public synchronized void start () throws IOException
+    {
+        if (httpServer != null) {
+            return;
+        }
+
+        httpServer = HttpServer.create(address, 0);
+        httpServer.createContext("/metrics", this);
+        httpServer.start();
+
+        log.info("Serving metrics on {}", address);
+    }
+
+    /**
+     * Stop listening.
+     */
+    public synchronized void stop ()
+    {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    @Override
+    public void handle (HttpExchange exchange) throws IOException
+    {
+        try {
+            byte[] body = render().getBytes("UTF-8");
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Render the metrics of all registered connections.
+     * @return The metrics in Prometheus text exposition format.
+     */
+    public String render ()
+    {
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "joan_connected", "gauge", "Whether the admin connection is established.");
+        for (OpenTTD openttd : servers) {
+            sample(sb, "joan_connected", openttd, null, openttd.getNetwork().isConnected() ? 1 : 0);
+        }
+
+        header(sb, "joan_paused", "gauge", "Whether the game is paused.");
+        for (OpenTTD openttd : servers) {
+            sample(sb, "joan_paused", openttd, null, metrics(openttd).isPaused() ? 1 : 0);
+        }
+
+        header(sb, "joan_pool_size", "gauge", "Number of entries in the client and company pools.");
+        for (OpenTTD openttd : servers) {
+            sample(sb, "joan_pool_size", openttd, "pool=\"client\"", metrics(openttd).getClientPoolSize());
+            sample(sb, "joan_pool_size", openttd, "pool=\"company\"", metrics(openttd).getCompanyPoolSize());
+        }
+
+        header(sb, "joan_game_ms_per_day", "gauge", "Wall-clock milliseconds per game day (nominal " + GameSpeedMonitor.NOMINAL_MS_PER_DAY + ").");
+        for (OpenTTD openttd : servers) {
+            sample(sb, "joan_game_ms_per_day", openttd, null, metrics(openttd).getGameSpeed().getMillisPerDay());
+        }
+
+        header(sb, "joan_game_speed_ratio", "gauge", "Effective game speed relative to nominal.");
+        for (OpenTTD openttd : servers) {
+            sample(sb, "joan_game_speed_ratio", openttd, null, metrics(openttd).getGameSpeed().getSpeed());
+        }
+
+        header(sb, "joan_game_stalled", "gauge", "Whether the game date stopped advancing while not paused.");
+        for (OpenTTD openttd : servers) {
+            sample(sb, "joan_game_stalled", openttd, null, metrics(openttd).getGameSpeed().isStalled() ? 1 : 0);
+        }
+
+        renderPackets(sb);
+        renderCompanies(sb);
+        renderLatency(sb);
+
+        return sb.toString();
+    }
+
+    private void renderPackets (StringBuilder sb)
+    {
+        header(sb, "joan_packets_received_total", "counter", "Packets received from the server.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (PacketType type : PacketType.values()) {
+                long n = m.getPacketsReceived(type.getValue());
+                if (n > 0) {
+                    sample(sb, "joan_packets_received_total", openttd, "type=\"" + type + "\"", n);
+                }
+            }
+        }
+
+        header(sb, "joan_packet_bytes_received_total", "counter", "Bytes received from the server.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (PacketType type : PacketType.values()) {
+                long n = m.getBytesReceived(type.getValue());
+                if (n > 0) {
+                    sample(sb, "joan_packet_bytes_received_total", openttd, "type=\"" + type + "\"", n);
+                }
+            }
+        }
+
+        header(sb, "joan_packets_sent_total", "counter", "Packets queued for sending to the server.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (PacketType type : PacketType.values()) {
+                long n = m.getPacketsSent(type.getValue());
+                if (n > 0) {
+                    sample(sb, "joan_packets_sent_total", openttd, "type=\"" + type + "\"", n);
+                }
+            }
+        }
+
+        header(sb, "joan_packet_bytes_sent_total", "counter", "Bytes queued for sending to the server.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (PacketType type : PacketType.values()) {
+                long n = m.getBytesSent(type.getValue());
+                if (n > 0) {
+                    sample(sb, "joan_packet_bytes_sent_total", openttd, "type=\"" + type + "\"", n);
+                }
+            }
+        }
+    }
+
+    private void renderCompanies (StringBuilder sb)
+    {
+        header(sb, "joan_company_value", "gauge", "Company value as of the last quarter.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (int c = 0; c < Company.MAX_COMPANIES; c++) {
+                if (m.isCompanyKnown(c)) {
+                    sample(sb, "joan_company_value", openttd, "company=\"" + c + "\"", m.getCompanyValue(c));
+                }
+            }
+        }
+
+        header(sb, "joan_company_vehicles", "gauge", "Number of vehicles per company and vehicle type.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (int c = 0; c < Company.MAX_COMPANIES; c++) {
+                if (m.isCompanyKnown(c)) {
+                    for (VehicleType vt : VehicleType.values()) {
+                        sample(sb, "joan_company_vehicles", openttd, "company=\"" + c + "\",type=\"" + vt + "\"", m.getCompanyVehicles(c, vt));
+                    }
+                }
+            }
+        }
+
+        header(sb, "joan_company_stations", "gauge", "Number of stations per company and vehicle type.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (int c = 0; c < Company.MAX_COMPANIES; c++) {
+                if (m.isCompanyKnown(c)) {
+                    for (VehicleType vt : VehicleType.values()) {
+                        sample(sb, "joan_company_stations", openttd, "company=\"" + c + "\",type=\"" + vt + "\"", m.getCompanyStations(c, vt));
+                    }
+                }
+            }
+        }
+    }
+
+    private void renderLatency (StringBuilder sb)
+    {
+        header(sb, "joan_admin_latency_seconds", "histogram", "Time between a poll or ping and the server's reply.");
+        for (OpenTTD openttd : servers) {
+            ServerMetrics m = metrics(openttd);
+            for (AdminUpdateType type : AdminUpdateType.values()) {
+                if (m.getPollLatency(type).getCount() > 0) {
+                    histogram(sb, "joan_admin_latency_seconds", openttd, "request=\"" + type + "\"", m.getPollLatency(type));
+                }
+            }
+
+            if (m.getPingLatency().getCount() > 0) {
+                histogram(sb, "joan_admin_latency_seconds", openttd, "request=\"ping\"", m.getPingLatency());
+            }
+        }
+
+        header(sb, "joan_liveness_failures_total", "counter", "Connections dropped because the server stopped answering pings.");
+        for (OpenTTD openttd : servers) {
+            sample(sb, "joan_liveness_failures_total", openttd, null, metrics(openttd).getLivenessFailures());
+        }
+    }
+
+    private static ServerMetrics metrics (OpenTTD openttd)
+    {
+        return openttd.getNetwork().getMetrics();
+    }
+
+    protected static void header (StringBuilder sb, String name, String type, String help)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    protected static void sample (StringBuilder sb, String name, OpenTTD openttd, String labels, long value)
+    {
+        sb.append(name).append("{server=\"");
+        escape(sb, openttd.getHostname() + ":" + openttd.getPort());
+        sb.append('"');
+
+        if (labels != null) {
+            sb.append(',').append(labels);
+        }
+
+        sb.append("} ").append(value).append('\n');
+    }
+
+    protected static void sample (StringBuilder sb, String name, OpenTTD openttd, String labels, double value)
+    {
+        sb.append(name).append("{server=\"");
+        escape(sb, openttd.getHostname() + ":" + openttd.getPort());
+        sb.append('"');
+
+        if (labels != null) {
+            sb.append(',').append(labels);
+        }
+
+        sb.append("} ");
+
+        if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            sb.append(value);
+        }
+
+        sb.append('\n');
+    }
+
+    protected static void histogram (StringBuilder sb, String name, OpenTTD openttd, String labels, LatencyHistogram h)
+    {
+        long cumulative = 0;
+
+        for (int i = 0; i < h.getBucketCount(); i++) {
+            double le = h.getUpperBound(i);
+
+            cumulative += h.getBucket(i);
+            sample(sb, name + "_bucket", openttd, labels + ",le=\"" + (Double.isInfinite(le) ? "+Inf" : String.valueOf(le)) + "\"", cumulative);
+        }
+
+        sample(sb, name + "_sum", openttd, labels, h.getSumNanos() / 1e9);
+        sample(sb, name + "_count", openttd, labels, cumulative);
+    }
+
+    private static void escape (StringBuilder sb, String s)
+    {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '"':  sb.append("\\\""); break;
+                case '\n': sb.append("\\n");  break;
+                default:   sb.append(c);
+            }
+        }
+    }
+}
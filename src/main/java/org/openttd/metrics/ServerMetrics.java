@@ -0,0 +1,245 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.metrics;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.openttd.Company;
+import org.openttd.enums.AdminUpdateType;
+import org.openttd.enums.VehicleType;
+
+/**
+ * Pre-aggregated counters and gauges of a single server connection.
+ *
+ * All values are updated by the NetworkClient thread as packets pass through
+ * and can be read from any thread without touching the pools.
+ */
+public class ServerMetrics
+{
+    /** Packet types are transferred as uint8. */
+    public static final int PACKET_TYPES = 256;
+
+    private static final int VEHICLE_TYPES = VehicleType.values().length;
+
+    private final AtomicLongArray packetsReceived = new AtomicLongArray(PACKET_TYPES);
+    private final AtomicLongArray bytesReceived   = new AtomicLongArray(PACKET_TYPES);
+    private final AtomicLongArray packetsSent     = new AtomicLongArray(PACKET_TYPES);
+    private final AtomicLongArray bytesSent       = new AtomicLongArray(PACKET_TYPES);
+
+    private final AtomicLongArray companyValue    = new AtomicLongArray(Company.MAX_COMPANIES);
+    private final AtomicLongArray companyVehicles = new AtomicLongArray(Company.MAX_COMPANIES * VEHICLE_TYPES);
+    private final AtomicLongArray companyStations = new AtomicLongArray(Company.MAX_COMPANIES * VEHICLE_TYPES);
+
+    private final EnumMap<AdminUpdateType, LatencyHistogram> pollLatency = new EnumMap<AdminUpdateType, LatencyHistogram>(AdminUpdateType.class);
+    private final LatencyHistogram pingLatency = new LatencyHistogram();
+    private final GameSpeedMonitor gameSpeed   = new GameSpeedMonitor();
+
+    /** Connections dropped by the LivenessWatchdog. */
+    private final AtomicLong livenessFailures = new AtomicLong();
+
+    /** Bitmask of the companies we have received stats or economy data for. */
+    private volatile int companiesKnown = 0;
+
+    private volatile int     clientPoolSize  = 0;
+    private volatile int     companyPoolSize = 0;
+    private volatile boolean paused          = false;
+
+    public ServerMetrics ()
+    {
+        for (AdminUpdateType type : AdminUpdateType.values()) {
+            pollLatency.put(type, new LatencyHistogram());
+        }
+    }
+
+    public void packetReceived (int type, int bytes)
+    {
+        packetsReceived.incrementAndGet(type & 0xFF);
+        bytesReceived.addAndGet(type & 0xFF, bytes);
+    }
+
+    public void packetSent (int type, int bytes)
+    {
+        packetsSent.incrementAndGet(type & 0xFF);
+        bytesSent.addAndGet(type & 0xFF, bytes);
+    }
+
+    public long getPacketsReceived (int type)
+    {
+        return packetsReceived.get(type);
+    }
+
+    public long getBytesReceived (int type)
+    {
+        return bytesReceived.get(type);
+    }
+
+    public long getPacketsSent (int type)
+    {
+        return packetsSent.get(type);
+    }
+
+    public long getBytesSent (int type)
+    {
+        return bytesSent.get(type);
+    }
+
+    public void setPoolSizes (int clients, int companies)
+    {
+        this.clientPoolSize  = clients;
+        this.companyPoolSize = companies;
+    }
+
+    public int getClientPoolSize ()
+    {
+        return clientPoolSize;
+    }
+
+    public int getCompanyPoolSize ()
+    {
+        return companyPoolSize;
+    }
+
+    /**
+     * The connection has been dropped because the server stopped answering.
+     */
+    public void livenessFailure ()
+    {
+        livenessFailures.incrementAndGet();
+    }
+
+    public long getLivenessFailures ()
+    {
+        return livenessFailures.get();
+    }
+
+    public void setPaused (boolean paused)
+    {
+        this.paused = paused;
+    }
+
+    public boolean isPaused ()
+    {
+        return paused;
+    }
+
+    /**
+     * Store the vehicle and station counts of a company.
+     * @param company Company as updated by receiveServerCompanyStats.
+     */
+    public void setCompanyStats (Company company)
+    {
+        if (!Company.isValid(company.id)) {
+            return;
+        }
+
+        for (VehicleType vt : VehicleType.values()) {
+            int index = company.id * VEHICLE_TYPES + vt.ordinal();
+
+            companyVehicles.set(index, valueOf(company.vehicles.get(vt)));
+            companyStations.set(index, valueOf(company.stations.get(vt)));
+        }
+
+        companiesKnown |= 1 << company.id;
+    }
+
+    /**
+     * Store the value of a company.
+     * @param companyId The company the value belongs to.
+     * @param value Company value as of the last quarter.
+     */
+    public void setCompanyValue (int companyId, long value)
+    {
+        if (!Company.isValid(companyId)) {
+            return;
+        }
+
+        companyValue.set(companyId, value);
+        companiesKnown |= 1 << companyId;
+    }
+
+    /**
+     * Forget everything known about a company.
+     * @param companyId The company that has been removed.
+     */
+    public void removeCompany (int companyId)
+    {
+        if (!Company.isValid(companyId)) {
+            return;
+        }
+
+        companiesKnown &= ~(1 << companyId);
+        companyValue.set(companyId, 0);
+
+        for (int i = 0; i < VEHICLE_TYPES; i++) {
+            companyVehicles.set(companyId * VEHICLE_TYPES + i, 0);
+            companyStations.set(companyId * VEHICLE_TYPES + i, 0);
+        }
+    }
+
+    public boolean isCompanyKnown (int companyId)
+    {
+        return Company.isValid(companyId) && (companiesKnown & (1 << companyId)) != 0;
+    }
+
+    public long getCompanyValue (int companyId)
+    {
+        return companyValue.get(companyId);
+    }
+
+    public long getCompanyVehicles (int companyId, VehicleType vt)
+    {
+        return companyVehicles.get(companyId * VEHICLE_TYPES + vt.ordinal());
+    }
+
+    public long getCompanyStations (int companyId, VehicleType vt)
+    {
+        return companyStations.get(companyId * VEHICLE_TYPES + vt.ordinal());
+    }
+
+    /**
+     * @param type The AdminUpdateType that has been polled.
+     * @return Histogram of the time between sending the poll and receiving the reply.
+     */
+    public LatencyHistogram getPollLatency (AdminUpdateType type)
+    {
+        return pollLatency.get(type);
+    }
+
+    /**
+     * @return Histogram of the time between sending a ping and receiving the pong.
+     */
+    public LatencyHistogram getPingLatency ()
+    {
+        return pingLatency;
+    }
+
+    /**
+     * @return Game speed derived from the SERVER_DATE updates.
+     */
+    public GameSpeedMonitor getGameSpeed ()
+    {
+        return gameSpeed;
+    }
+
+    private static long valueOf (Integer i)
+    {
+        return (i == null) ? 0 : i.longValue();
+    }
+}
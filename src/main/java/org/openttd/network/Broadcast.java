@@ -0,0 +1,257 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openttd.StringFunc;
+import org.openttd.enums.DestType;
+import org.openttd.enums.NetworkAction;
+import org.openttd.network.codec.AdminChatCodec;
+import org.openttd.network.codec.AdminGamescriptCodec;
+import org.openttd.network.codec.AdminRconCodec;
+
+/**
+ * Sends the same packets to many connections, encoding them only once.
+ *
+ * The packets are encoded into EncodedPacket buffers shared by all targets
+ * and handed straight to the NetworkOutputThread. For every target there is
+ * a Future, completed once all packets have been written to its socket, or
+ * failed if that was not possible.
+ *
+ * Chat sent this way does not go through the ChatController of the targets,
+ * so it is not rate limited or merged.
+ */
+public class Broadcast
+{
+    private static final Runnable NOOP = new Runnable()
+    {
+        @Override
+        public void run () {}
+    };
+
+    /**
+     * Completed once all packets have been written to the socket of a target.
+     */
+    private static class Delivery extends FutureTask<Void>
+    {
+        final AtomicInteger remaining;
+
+        Delivery (int packets)
+        {
+            super(NOOP, null);
+            this.remaining = new AtomicInteger(packets);
+        }
+
+        void sent ()
+        {
+            if (this.remaining.decrementAndGet() == 0) {
+                set(null);
+            }
+        }
+
+        void fail (Throwable t)
+        {
+            setException(t);
+        }
+    }
+
+    /**
+     * A Packet sharing an EncodedPacket, reporting back to the Delivery of its target.
+     */
+    private static class SharedPacket extends Packet
+    {
+        final EncodedPacket encoded;
+        final Delivery delivery;
+
+        SharedPacket (Network target, EncodedPacket encoded, Delivery delivery)
+        {
+            super(target.getSocket(), encoded);
+            this.encoded  = encoded;
+            this.delivery = delivery;
+        }
+
+        @Override
+        protected void sent ()
+        {
+            this.encoded.release();
+            this.delivery.sent();
+        }
+
+        @Override
+        protected void failed (IOException ex)
+        {
+            this.encoded.release();
+            this.delivery.fail(ex);
+        }
+    }
+
+    private final List<EncodedPacket> packets;
+    private final Map<Network, Future<Void>> results = new LinkedHashMap<Network, Future<Void>>();
+
+    private Broadcast (List<EncodedPacket> packets)
+    {
+        this.packets = packets;
+    }
+
+    /**
+     * Send a chat message to many servers. Long messages are split once, like
+     * the ChatController does.
+     * @param targets The connections to send to.
+     * @param action The NetworkAction of the message.
+     * @param type The DestType of the message.
+     * @param dest Client or company id, depending on the DestType.
+     * @param message The message.
+     * @param data Additional data.
+     * @return The report of the broadcast.
+     * @throws IOException if the message can not be encoded.
+     */
+    public static Broadcast chat (Iterable<? extends Network> targets, NetworkAction action, DestType type, long dest, String message, long data) throws IOException
+    {
+        List<EncodedPacket> packets = new ArrayList<EncodedPacket>();
+
+        for (String part : StringFunc.splitUtf8(message.trim(), ChatController.MAX_PART_LENGTH)) {
+            packets.add(AdminChatCodec.encode(null, action.ordinal(), type.ordinal(), dest, part, data).seal());
+        }
+
+        return send(targets, packets);
+    }
+
+    /**
+     * Send a server message to everybody on many servers.
+     * @see #chat(Iterable, NetworkAction, DestType, long, String, long)
+     */
+    public static Broadcast serverMessage (Iterable<? extends Network> targets, String message) throws IOException
+    {
+        return chat(targets, NetworkAction.NETWORK_ACTION_SERVER_MESSAGE, DestType.DESTTYPE_BROADCAST, 0, message, 0);
+    }
+
+    /**
+     * Send a remote console command to many servers.
+     * @param targets The connections to send to.
+     * @param command The command.
+     * @return The report of the broadcast.
+     * @throws IOException if the command can not be encoded.
+     */
+    public static Broadcast rcon (Iterable<? extends Network> targets, String command) throws IOException
+    {
+        EncodedPacket p = AdminRconCodec.encode(null, command).seal();
+
+        return send(targets, Collections.singletonList(p), PacketPriority.forRcon(command));
+    }
+
+    /**
+     * Send a JSON string to the GameScript of many servers.
+     * @param targets The connections to send to.
+     * @param json The JSON string.
+     * @return The report of the broadcast.
+     * @throws IOException if the string can not be encoded.
+     */
+    public static Broadcast gamescript (Iterable<? extends Network> targets, String json) throws IOException
+    {
+        return send(targets, Collections.singletonList(AdminGamescriptCodec.encode(null, json).seal()));
+    }
+
+    private static Broadcast send (Iterable<? extends Network> targets, List<EncodedPacket> packets)
+    {
+        return send(targets, packets, null);
+    }
+
+    private static Broadcast send (Iterable<? extends Network> targets, List<EncodedPacket> packets, PacketPriority priority)
+    {
+        Broadcast broadcast = new Broadcast(packets);
+
+        for (Network target : targets) {
+            Delivery delivery = new Delivery(packets.size());
+            broadcast.results.put(target, delivery);
+
+            if (!target.isConnected()) {
+                delivery.fail(new IOException("Not connected"));
+                continue;
+            }
+
+            for (EncodedPacket encoded : packets) {
+                SharedPacket p = new SharedPacket(target, encoded, delivery);
+
+                if (priority != null) {
+                    p.setPriority(priority);
+                }
+
+                encoded.retain();
+
+                try {
+                    NetworkOutputThread.append(p);
+                } catch (IllegalStateException ex) {
+                    p.failed(new IOException(ex.getMessage()));
+                    break;
+                }
+
+                target.getMetrics().packetSent(encoded.getType().getValue(), encoded.size());
+            }
+        }
+
+        return broadcast;
+    }
+
+    /**
+     * @return The Future of every target, in the order of the targets.
+     */
+    public Map<Network, Future<Void>> getResults ()
+    {
+        return Collections.unmodifiableMap(this.results);
+    }
+
+    /**
+     * @param target A target of the broadcast.
+     * @return The Future of the target, or null if it was not a target.
+     */
+    public Future<Void> get (Network target)
+    {
+        return this.results.get(target);
+    }
+
+    /**
+     * @return true once every packet has been written or dropped, for all targets.
+     */
+    public boolean isDone ()
+    {
+        for (EncodedPacket p : this.packets) {
+            if (p.getReferences() > 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Number of packets encoded for the broadcast, whatever the number of targets.
+     */
+    public int getPacketCount ()
+    {
+        return this.packets.size();
+    }
+}
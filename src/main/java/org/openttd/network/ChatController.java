@@ -0,0 +1,424 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.openttd.StringFunc;
+import org.openttd.enums.DestType;
+import org.openttd.enums.NetworkAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound chat of a connection, rate limited so the server is not flooded.
+ *
+ * Every message part takes a token from the bucket of the server and from the
+ * bucket of its destination. Messages to different destinations overtake each
+ * other while a destination is throttled, messages to the same destination
+ * keep their order. Long messages are split on word boundaries, server
+ * messages still waiting in the queue are merged if the result fits into a
+ * single chat message.
+ *
+ * All connections share a single thread to send throttled messages.
+ */
+public class ChatController
+{
+    /** Separator between merged server messages. */
+    public static final String MERGE_SEPARATOR = " | ";
+
+    /** Maximum length of a message part in bytes, excluding the terminating NUL. */
+    public static final int MAX_PART_LENGTH = NetworkClient.NETWORK_CHAT_LENGTH - 1;
+
+    /** Time to wait before trying again while the connection is down. */
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Runnable NOOP = new Runnable()
+    {
+        @Override
+        public void run () {}
+    };
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread (Runnable r)
+        {
+            Thread t = new Thread(r, "joan-chat");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Completed once the last part of a message has been handed to the NetworkOutputThread.
+     */
+    private static class Delivery extends FutureTask<Void>
+    {
+        Delivery ()
+        {
+            super(NOOP, null);
+        }
+
+        void complete ()
+        {
+            set(null);
+        }
+
+        void fail (Throwable t)
+        {
+            setException(t);
+        }
+    }
+
+    private static class Message
+    {
+        final NetworkAction action;
+        final DestType type;
+        final long dest;
+        final long data;
+        final List<Delivery> deliveries = new ArrayList<Delivery>(1);
+        String text;
+        List<String> parts;
+        int sent = 0;
+        boolean failed = false;
+
+        Message (NetworkAction action, DestType type, long dest, String text, long data)
+        {
+            this.action = action;
+            this.type   = type;
+            this.dest   = dest;
+            this.data   = data;
+            this.text   = text;
+            this.parts  = StringFunc.splitUtf8(text, MAX_PART_LENGTH);
+        }
+
+        long destination ()
+        {
+            return ((long) type.ordinal() << 32) | (dest & 0xFFFFFFFFL);
+        }
+
+        boolean isCancelled ()
+        {
+            for (Delivery d : deliveries) {
+                if (!d.isCancelled()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(ChatController.class);
+    private final Network network;
+    private final LinkedList<Message> queue = new LinkedList<Message>();
+    private final HashMap<Long, TokenBucket> destinations = new HashMap<Long, TokenBucket>();
+
+    private TokenBucket server;
+    private double destinationRate  = 1;
+    private int    destinationBurst = 3;
+    private boolean scheduled = false;
+
+    private final Runnable drain = new Runnable()
+    {
+        @Override
+        public void run ()
+        {
+            drain();
+        }
+    };
+
+    protected ChatController (Network network)
+    {
+        this.network = network;
+        this.server  = new TokenBucket(4, 8);
+    }
+
+    /**
+     * Limit the messages sent to the server, whatever their destination.
+     * @param perSecond Message parts per second.
+     * @param burst Message parts that may be sent at once after a quiet period.
+     */
+    public synchronized void setServerRate (double perSecond, int burst)
+    {
+        this.server = new TokenBucket(perSecond, burst);
+    }
+
+    /**
+     * Limit the messages sent to a single destination, e.g. a client or everybody.
+     * @param perSecond Message parts per second.
+     * @param burst Message parts that may be sent at once after a quiet period.
+     */
+    public synchronized void setDestinationRate (double perSecond, int burst)
+    {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+
+        this.destinationRate  = perSecond;
+        this.destinationBurst = burst;
+        this.destinations.clear();
+    }
+
+    /**
+     * Queue a chat message.
+     * @param action The NetworkAction of the message.
+     * @param type The DestType of the message.
+     * @param dest Client or company id, depending on the DestType.
+     * @param message The message, leading and trailing whitespace is removed.
+     * @param data Additional data, e.g. the amount of money given.
+     * @return Completed once the message has been handed to the server connection,
+     *         failed if that is not possible. Cancelling it drops the message if
+     *         nothing of it has been sent yet.
+     * @throws IOException if the connection is closed for good.
+     */
+    public Future<Void> send (NetworkAction action, DestType type, long dest, String message, long data) throws IOException
+    {
+        if (network.isClosed()) {
+            throw new IOException("Connection closed");
+        }
+
+        Delivery delivery = new Delivery();
+        Message m = new Message(action, type, dest, message.trim(), data);
+
+        synchronized (this) {
+            Message target = merge(m);
+
+            if (target == null) {
+                this.queue.addLast(m);
+                target = m;
+            }
+            target.deliveries.add(delivery);
+        }
+
+        schedule(0);
+
+        return delivery;
+    }
+
+    /**
+     * @return Number of messages waiting to be sent.
+     */
+    public synchronized int size ()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * Merge a server message into one to the same destination still waiting.
+     * @param m The new message.
+     * @return The queued message m has been merged into, or null.
+     */
+    private Message merge (Message m)
+    {
+        if (m.action != NetworkAction.NETWORK_ACTION_SERVER_MESSAGE || m.parts.size() > 1) {
+            return null;
+        }
+
+        for (Iterator<Message> it = this.queue.descendingIterator(); it.hasNext();) {
+            Message q = it.next();
+
+            if (q.destination() != m.destination()) {
+                continue;
+            }
+
+            /* only the last queued message to this destination, to keep the order */
+            if (q.action != m.action || q.data != m.data || q.sent > 0 || q.parts.size() > 1) {
+                return null;
+            }
+
+            String text = q.text + MERGE_SEPARATOR + m.text;
+
+            if (StringFunc.utf8Length(text) > MAX_PART_LENGTH) {
+                return null;
+            }
+
+            q.text  = text;
+            q.parts = StringFunc.splitUtf8(text, MAX_PART_LENGTH);
+            return q;
+        }
+
+        return null;
+    }
+
+    /**
+     * Make sure a drain is scheduled.
+     * @param delay Nanoseconds until the drain.
+     */
+    private synchronized void schedule (long delay)
+    {
+        if (!this.scheduled) {
+            this.scheduled = true;
+            executor.schedule(this.drain, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Send whatever the rate limits permit, then schedule the next attempt.
+     * Only runs on the executor thread. The parts are sent without holding
+     * the lock, as callbacks on the NetworkClient thread may queue messages.
+     */
+    private void drain ()
+    {
+        List<Message> messages = new ArrayList<Message>();
+        List<String> parts     = new ArrayList<String>();
+        long wait;
+
+        synchronized (this) {
+            this.scheduled = false;
+
+            if (this.queue.isEmpty()) {
+                return;
+            }
+
+            if (network.isClosed()) {
+                failAll(new IOException("Connection closed"));
+                return;
+            }
+
+            wait = network.isConnected() ? takePermitted(messages, parts) : RETRY_NANOS;
+
+            /* forget the buckets of quiet destinations */
+            for (Iterator<TokenBucket> it = this.destinations.values().iterator(); it.hasNext();) {
+                if (it.next().isFull()) {
+                    it.remove();
+                }
+            }
+        }
+
+        for (int i = 0; i < parts.size(); i++) {
+            Message m = messages.get(i);
+
+            if (m.failed) {
+                continue;
+            }
+
+            try {
+                network.getNetworkClient().sendAdminChat(m.action, m.type, m.dest, parts.get(i), m.data);
+            } catch (IOException ex) {
+                log.warn("Failed sending chat to " + network.getServerName(), ex);
+                fail(m, ex);
+                continue;
+            } catch (RuntimeException ex) {
+                /* e.g. a full outbound queue, the parts are taken already and would be lost silently */
+                log.warn("Failed sending chat to " + network.getServerName(), ex);
+                fail(m, ex);
+                continue;
+            }
+
+            /* the last part of the message has been sent */
+            if (i + 1 == parts.size() || messages.get(i + 1) != m) {
+                if (m.sent == m.parts.size()) {
+                    for (Delivery d : m.deliveries) {
+                        d.complete();
+                    }
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (!this.queue.isEmpty()) {
+                schedule(Math.max(wait, 1));
+            }
+        }
+    }
+
+    /**
+     * Take the parts the rate limits permit, in order per destination.
+     * @param messages Filled with the message of each part taken.
+     * @param parts Filled with the parts taken.
+     * @return Nanoseconds until the next part may be sent.
+     */
+    private long takePermitted (List<Message> messages, List<String> parts)
+    {
+        long wait = Long.MAX_VALUE;
+        Set<Long> blocked = new HashSet<Long>();
+
+        for (Iterator<Message> it = this.queue.iterator(); it.hasNext();) {
+            Message m = it.next();
+            Long destination = m.destination();
+
+            if (m.failed || (m.sent == 0 && m.isCancelled())) {
+                it.remove();
+                continue;
+            }
+
+            if (blocked.contains(destination)) {
+                continue;
+            }
+
+            TokenBucket bucket = this.destinations.get(destination);
+            if (bucket == null) {
+                bucket = new TokenBucket(this.destinationRate, this.destinationBurst);
+                this.destinations.put(destination, bucket);
+            }
+
+            while (m.sent < m.parts.size()) {
+                long w = Math.max(this.server.nanosUntilAvailable(), bucket.nanosUntilAvailable());
+
+                if (w > 0) {
+                    wait = Math.min(wait, w);
+                    break;
+                }
+
+                this.server.tryTake();
+                bucket.tryTake();
+
+                messages.add(m);
+                parts.add(m.parts.get(m.sent++));
+            }
+
+            if (m.sent == m.parts.size()) {
+                it.remove();
+            } else {
+                blocked.add(destination);
+            }
+        }
+
+        return wait;
+    }
+
+    private void fail (Message m, Throwable t)
+    {
+        m.failed = true;
+        for (Delivery d : m.deliveries) {
+            d.fail(t);
+        }
+    }
+
+    private void failAll (Throwable t)
+    {
+        for (Message m : this.queue) {
+            fail(m, t);
+        }
+        this.queue.clear();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Packets that refer to a client or company not in the Pool yet.
+ *
+ * The NetworkClient polls the missing information and parks the Packet here.
+ * Once the CLIENT_INFO or COMPANY_INFO arrives, the parked packets are handled
+ * again, in the order they were received. Packets waiting too long, or pushed
+ * out by newer ones, are dropped.
+ *
+ * Only used by the NetworkClient thread.
+ */
+public class DeferredPackets
+{
+    /** Packets not released within this time are dropped. */
+    public static final long TIMEOUT_NANOS = 30L * 1000 * 1000 * 1000;
+
+    /** Maximum number of packets parked per connection. */
+    public static final int MAX_DEFERRED = 256;
+
+    private static class Deferred
+    {
+        final boolean company;
+        final long id;
+        final Packet packet;
+        final long deadline;
+
+        Deferred (boolean company, long id, Packet packet, long deadline)
+        {
+            this.company  = company;
+            this.id       = id;
+            this.packet   = packet;
+            this.deadline = deadline;
+        }
+    }
+
+    private final LinkedList<Deferred> deferred = new LinkedList<Deferred>();
+    private long dropped = 0;
+
+    /**
+     * Park a Packet until the client it refers to is known.
+     * @param clientId The missing client.
+     * @param p The Packet, it is handled again as is.
+     */
+    protected void deferClient (long clientId, Packet p)
+    {
+        add(new Deferred(false, clientId, p, System.nanoTime() + TIMEOUT_NANOS));
+    }
+
+    /**
+     * Park a Packet until the company it refers to is known.
+     * @param companyId The missing company.
+     * @param p The Packet, it is handled again as is.
+     */
+    protected void deferCompany (int companyId, Packet p)
+    {
+        add(new Deferred(true, companyId, p, System.nanoTime() + TIMEOUT_NANOS));
+    }
+
+    /**
+     * A client has become known.
+     * @param clientId The client that has been added to the Pool.
+     * @return The packets waiting for it, oldest first.
+     */
+    protected List<Packet> releaseClient (long clientId)
+    {
+        return release(false, clientId);
+    }
+
+    /**
+     * A company has become known.
+     * @param companyId The company that has been added to the Pool.
+     * @return The packets waiting for it, oldest first.
+     */
+    protected List<Packet> releaseCompany (int companyId)
+    {
+        return release(true, companyId);
+    }
+
+    /**
+     * Drop the packets that have been waiting for too long.
+     * @return Number of packets dropped.
+     */
+    protected int expire ()
+    {
+        if (this.deferred.isEmpty()) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        int n = 0;
+
+        for (Iterator<Deferred> it = this.deferred.iterator(); it.hasNext();) {
+            if (now - it.next().deadline > 0) {
+                it.remove();
+                n++;
+            }
+        }
+
+        this.dropped += n;
+        return n;
+    }
+
+    /**
+     * @return Number of packets currently parked.
+     */
+    public int size ()
+    {
+        return this.deferred.size();
+    }
+
+    /**
+     * @return Number of packets dropped since the connection was created.
+     */
+    public long getDropped ()
+    {
+        return this.dropped;
+    }
+
+    private void add (Deferred d)
+    {
+        if (this.deferred.size() >= MAX_DEFERRED) {
+            this.deferred.removeFirst();
+            this.dropped++;
+        }
+
+        this.deferred.addLast(d);
+    }
+
+    private List<Packet> release (boolean company, long id)
+    {
+        if (this.deferred.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Packet> result = new ArrayList<Packet>();
+
+        for (Iterator<Deferred> it = this.deferred.iterator(); it.hasNext();) {
+            Deferred d = it.next();
+
+            if (d.company == company && d.id == id) {
+                it.remove();
+                result.add(d.packet);
+            }
+        }
+
+        return result;
+    }
+}
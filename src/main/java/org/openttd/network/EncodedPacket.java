@@ -0,0 +1,85 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openttd.enums.PacketType;
+
+/**
+ * Immutable encoded Packet, shared by the packets sending it to several sockets.
+ *
+ * Every Packet queued with this buffer holds a reference, which is released
+ * once the NetworkOutputThread has written or dropped it.
+ * @see Packet#seal()
+ * @see Broadcast
+ */
+public class EncodedPacket
+{
+    private final PacketType type;
+    private final byte[] buf;
+    private final AtomicInteger references = new AtomicInteger();
+
+    protected EncodedPacket (PacketType type, byte[] buf)
+    {
+        this.type = type;
+        this.buf  = buf;
+    }
+
+    public PacketType getType ()
+    {
+        return this.type;
+    }
+
+    /**
+     * @return Size of the Packet in bytes, including the header.
+     */
+    public int size ()
+    {
+        return this.buf.length;
+    }
+
+    /**
+     * @return The buffer, which must not be written to.
+     */
+    protected byte[] buffer ()
+    {
+        return this.buf;
+    }
+
+    protected void retain ()
+    {
+        this.references.incrementAndGet();
+    }
+
+    /**
+     * @return true if this was the last reference.
+     */
+    protected boolean release ()
+    {
+        return this.references.decrementAndGet() == 0;
+    }
+
+    /**
+     * @return Number of queued packets still referencing the buffer.
+     */
+    public int getReferences ()
+    {
+        return this.references.get();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import org.openttd.enums.AdminUpdateFrequency;
+import org.openttd.enums.AdminUpdateType;
+import org.openttd.metrics.ServerMetrics;
+
+/**
+ * Matches outgoing polls and pings with the replies of the server and
+ * records the time in between with the ServerMetrics of the connection.
+ *
+ * The server does not tell a poll answer from an automatic or periodic update
+ * of the same type, so types registered for such updates are not measured.
+ */
+public class LatencyTracker
+{
+    /** Polls and pings not answered within this time are forgotten. */
+    public static final long TIMEOUT_NANOS = 60L * 1000 * 1000 * 1000;
+
+    /** Maximum number of outstanding requests tracked per kind. */
+    private static final int MAX_PENDING = 64;
+
+    /** The id sent with a poll to request information on all clients or companies. */
+    private static final long POLL_ALL = 0xFFFFFFFFL;
+
+    private static class Pending
+    {
+        final long data;
+        final long sent;
+
+        Pending (long data, long sent)
+        {
+            this.data = data;
+            this.sent = sent;
+        }
+    }
+
+    private final ServerMetrics metrics;
+    /** Types the server also sends on its own, their replies can not be matched. */
+    private final EnumSet<AdminUpdateType> unsolicited = EnumSet.noneOf(AdminUpdateType.class);
+    private final EnumMap<AdminUpdateType, LinkedList<Pending>> polls = new EnumMap<AdminUpdateType, LinkedList<Pending>>(AdminUpdateType.class);
+    private final LinkedHashMap<Long, Long> pings = new LinkedHashMap<Long, Long>()
+    {
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<Long, Long> eldest)
+        {
+            return size() > MAX_PENDING;
+        }
+    };
+
+    protected LatencyTracker (ServerMetrics metrics)
+    {
+        this.metrics = metrics;
+
+        for (AdminUpdateType type : AdminUpdateType.values()) {
+            polls.put(type, new LinkedList<Pending>());
+        }
+    }
+
+    /**
+     * An update frequency has been registered with the server.
+     * @param type The AdminUpdateType registered.
+     * @param freq The frequency it has been registered at.
+     */
+    public synchronized void frequencyRegistered (AdminUpdateType type, AdminUpdateFrequency freq)
+    {
+        if (freq == AdminUpdateFrequency.ADMIN_FREQUENCY_POLL) {
+            unsolicited.remove(type);
+        } else {
+            unsolicited.add(type);
+            polls.get(type).clear();
+        }
+    }
+
+    /**
+     * An ADMIN_POLL has been sent.
+     * @param type The AdminUpdateType polled for.
+     * @param data The id sent along with the poll.
+     */
+    public synchronized void pollSent (AdminUpdateType type, long data)
+    {
+        if (unsolicited.contains(type)) {
+            return;
+        }
+
+        LinkedList<Pending> pending = polls.get(type);
+        long now = System.nanoTime();
+
+        expire(pending, now);
+
+        if (pending.size() >= MAX_PENDING) {
+            pending.removeFirst();
+        }
+
+        pending.addLast(new Pending(data & POLL_ALL, now));
+    }
+
+    /**
+     * A reply to a poll, or an update of the same type, has arrived.
+     * The oldest outstanding poll for this id, or for all ids, is considered answered.
+     * Types the server also sends on its own are never matched.
+     * @param type The AdminUpdateType the reply belongs to.
+     * @param id Client or company id of the reply, ignored for other types.
+     * @return true if the reply has been matched with a poll.
+     */
+    public synchronized boolean replyReceived (AdminUpdateType type, long id)
+    {
+        LinkedList<Pending> pending = polls.get(type);
+
+        if (pending.isEmpty()) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        boolean byId = (type == AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO || type == AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO);
+
+        expire(pending, now);
+
+        for (Iterator<Pending> it = pending.iterator(); it.hasNext();) {
+            Pending p = it.next();
+
+            if (!byId || p.data == id || p.data == POLL_ALL) {
+                it.remove();
+                metrics.getPollLatency(type).record(now - p.sent);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @see #replyReceived(AdminUpdateType, long)
+     */
+    public boolean replyReceived (AdminUpdateType type)
+    {
+        return replyReceived(type, 0);
+    }
+
+    /**
+     * An ADMIN_PING has been sent.
+     * @param payload The payload of the ping.
+     */
+    public synchronized void pingSent (long payload)
+    {
+        pings.put(payload, System.nanoTime());
+    }
+
+    /**
+     * A SERVER_PONG has arrived.
+     * @param payload The payload of the pong.
+     * @return Round trip time in nanoseconds, or -1 if we did not send a ping with this payload.
+     */
+    public synchronized long pongReceived (long payload)
+    {
+        Long sent = pings.remove(payload);
+
+        if (sent == null) {
+            return -1;
+        }
+
+        long rtt = System.nanoTime() - sent;
+        metrics.getPingLatency().record(rtt);
+
+        return rtt;
+    }
+
+    private static void expire (LinkedList<Pending> pending, long now)
+    {
+        while (!pending.isEmpty() && now - pending.getFirst().sent > TIMEOUT_NANOS) {
+            pending.removeFirst();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.io.IOException;
+import java.util.Random;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects a connection to a server that has stopped answering.
+ *
+ * A socket that is half-open, e.g. to a frozen server, keeps looking healthy.
+ * Once the server has welcomed us, the watchdog sends an ADMIN_PING with a
+ * sequence number as payload every interval. Each interval that passes
+ * without a PONG to any of the recent pings counts as missed, after too many
+ * the connection is dropped so the ReconnectPolicy can take over. A late PONG
+ * still counts, so a server with a round trip time above the interval is not
+ * taken for dead. A server that does not welcome us within the same time is
+ * dropped as well.
+ *
+ * The round trip times end up in the ServerMetrics like those of any ping,
+ * the PONGs themselves are not dispatched.
+ * Only used by the NetworkClient thread.
+ * @see Network#setLivenessCheck(long, java.util.concurrent.TimeUnit, int)
+ */
+public class LivenessWatchdog
+{
+    /** Number of the most recent pings whose PONGs are still recognised. */
+    private static final int WINDOW = 64;
+
+    private final Logger log = LoggerFactory.getLogger(LivenessWatchdog.class);
+    private final Network network;
+
+    private boolean welcomed = false;
+    private long connectedSince;
+    private long nextPing;
+    private long sequence;
+    /** Number of pings sent on this connection, up to WINDOW. */
+    private int  inFlight = 0;
+    /** Whether a PONG has arrived since the last ping. */
+    private boolean answered = false;
+    private int  missed = 0;
+
+    protected LivenessWatchdog (Network network)
+    {
+        this.network  = network;
+        this.sequence = new Random().nextInt() & 0xFFFFFFFFL;
+        this.reset();
+    }
+
+    /**
+     * Start watching a new connection.
+     */
+    protected void reset ()
+    {
+        this.welcomed       = false;
+        this.connectedSince = System.nanoTime();
+        this.inFlight       = 0;
+        this.answered       = false;
+        this.missed         = 0;
+    }
+
+    /**
+     * The server has welcomed us, it accepts pings from now on.
+     */
+    protected void welcomed ()
+    {
+        this.welcomed = true;
+        this.nextPing = System.nanoTime();
+    }
+
+    /**
+     * Send the next ping if it is due, drop the connection if it is dead.
+     * @param client The NetworkClient of the connection.
+     */
+    protected void check (NetworkClient client)
+    {
+        long interval = network.getLivenessInterval();
+        int  limit    = network.getLivenessMissed();
+        long now      = System.nanoTime();
+
+        if (interval <= 0 || !network.isConnected()) {
+            return;
+        }
+
+        if (!this.welcomed) {
+            if (now - this.connectedSince > limit * interval) {
+                declareDead("no welcome within " + limit + " intervals");
+            }
+            return;
+        }
+
+        if (now - this.nextPing < 0) {
+            return;
+        }
+
+        if (this.inFlight > 0 && !this.answered && ++this.missed >= limit) {
+            declareDead(this.missed + " pings unanswered");
+            return;
+        }
+
+        this.sequence = (this.sequence + 1) & 0xFFFFFFFFL;
+        this.inFlight = Math.min(this.inFlight + 1, WINDOW);
+        this.answered = false;
+        this.nextPing = now + interval;
+
+        try {
+            client.sendAdminPing(this.sequence);
+        } catch (IOException ex) {
+            log.warn("Failed pinging " + network.getServerName(), ex);
+        } catch (IllegalStateException ex) {
+            /* the outbound queue is full, counts as a missed ping with the next interval */
+            log.warn("Failed pinging " + network.getServerName(), ex);
+        }
+    }
+
+    /**
+     * A PONG has arrived.
+     * @param payload The payload of the PONG.
+     * @return true if it answers one of the recent pings of the watchdog.
+     */
+    protected boolean pongReceived (long payload)
+    {
+        if (((this.sequence - payload) & 0xFFFFFFFFL) >= this.inFlight) {
+            return false;
+        }
+
+        this.answered = true;
+        this.missed   = 0;
+        return true;
+    }
+
+    /**
+     * @return Number of intervals in a row without an answer.
+     */
+    public int getMissed ()
+    {
+        return this.missed;
+    }
+
+    private void declareDead (String reason)
+    {
+        log.warn("Dropping connection to {}: {}", network.getServerName(), reason);
+
+        network.getMetrics().livenessFailure();
+        this.welcomed = false;
+        network.disconnect();
+    }
+}
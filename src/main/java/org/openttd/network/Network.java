@@ -20,32 +20,140 @@ package org.openttd.network;
 
 import java.io.*;
 import java.net.*;
+import java.util.EnumMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.openttd.OpenTTD;
 import org.openttd.enums.*;
+import org.openttd.metrics.ServerMetrics;
 
 public class Network
 {
+    private static volatile PacketTracer tracer = null;
+    private static volatile StringCache stringCache = null;
+
+    /* reconciliation sweeps of all connections are spread out by at least this many nanoseconds */
+    private static volatile long reconcileSpacing = TimeUnit.SECONDS.toNanos(1);
+    private static final AtomicLong nextReconcileSlot = new AtomicLong(System.nanoTime());
+
     private Socket        socket;
     private NetworkClient networkClient;
+    private ChatController chat;
     private OpenTTD       openttd;
     private Protocol      protocol;
+    private ServerMetrics metrics;
+    private LatencyTracker latencyTracker;
+    private volatile DoCommandNameRegistry commandNames = null;
+    private PacketRing    receiveRing;
+
+    private int receiveCapacity = PacketRing.DEFAULT_CAPACITY;
+    private PacketRing.WaitStrategy receiveWaitStrategy = PacketRing.WaitStrategy.PARK;
+
+    private ReconnectPolicy reconnectPolicy = null;
+    private volatile boolean closed = false;
+    private volatile int connections = 0;
+    private String host;
+    private int port;
+
+    private File snapshotFile = null;
+    private long snapshotInterval = 0;
+    private long reconcileInterval = 0;
+    private volatile long livenessInterval = 0;
+    private volatile int  livenessMissed = 3;
+
+    /** Update frequencies registered with the server, sent again after a reconnect. */
+    private final EnumMap<AdminUpdateType, AdminUpdateFrequency> frequencies = new EnumMap<AdminUpdateType, AdminUpdateFrequency>(AdminUpdateType.class);
     
     public Network (OpenTTD openttd)
     {
         this.openttd       = openttd;
         this.protocol      = new Protocol();
+        this.metrics       = new ServerMetrics();
+        this.latencyTracker = new LatencyTracker(metrics);
         this.networkClient = new NetworkClient(this);
+        this.chat          = new ChatController(this);
 
         Logger.getLogger(Network.class.getName()).setLevel(openttd.loglevel);
     }
 
-    public boolean connect (String host, int port) throws UnknownHostException, IOException
+    /**
+     * Install a PacketTracer for all connections.
+     * @param packetTracer The tracer to use, or null to disable tracing.
+     */
+    public static void setPacketTracer (PacketTracer packetTracer)
+    {
+        tracer = packetTracer;
+    }
+
+    /**
+     * @return The installed PacketTracer or null if tracing is disabled.
+     */
+    protected static PacketTracer getPacketTracer ()
+    {
+        return tracer;
+    }
+
+    /**
+     * Install a StringCache for the strings received on all connections.
+     * @param cache The cache to use, or null to decode every string.
+     */
+    public static void setStringCache (StringCache cache)
     {
+        stringCache = cache;
+    }
+
+    /**
+     * @return The installed StringCache or null if strings are not cached.
+     */
+    protected static StringCache getStringCache ()
+    {
+        return stringCache;
+    }
+
+    /**
+     * Limit the rate of reconciliation sweeps across all connections, so a
+     * large fleet does not poll every server at the same time.
+     * @param spacing Minimum time between two sweeps, of any connection.
+     * @param unit Unit of the spacing.
+     */
+    public static void setReconcileSpacing (long spacing, TimeUnit unit)
+    {
+        reconcileSpacing = unit.toNanos(spacing);
+    }
+
+    /**
+     * Claim the next free slot for a reconciliation sweep.
+     * @return true if the caller may sweep now, false if it has to try again later.
+     */
+    protected static boolean claimReconcileSlot ()
+    {
+        long now  = System.nanoTime();
+        long next = nextReconcileSlot.get();
+
+        return now - next >= 0 && nextReconcileSlot.compareAndSet(next, now + reconcileSpacing);
+    }
+
+    /**
+     * Connect to a server and join its admin network.
+     * @param host Hostname or IP of the server.
+     * @param port Port number of the server's admin network.
+     * @return false if the connection was refused or no password is set.
+     * @throws UnknownHostException
+     * @throws IOException
+     */
+    public synchronized boolean connect (String host, int port) throws UnknownHostException, IOException
+    {
+        this.host   = host;
+        this.port   = port;
+        this.closed = false;
+
         if (openttd.getPassword().isEmpty()) {
             Logger.getLogger(Network.class.getName()).log(Level.SEVERE, "Cannot connect with empty password");
-            System.exit(2);
+            this.closed = true;
+            return false;
         }
 
         try {
@@ -54,28 +162,248 @@ public class Network
             this.socket.setTcpNoDelay(true);
             this.socket.setKeepAlive(false);
 
+            this.protocol    = new Protocol();
+            this.receiveRing = new PacketRing(receiveCapacity, receiveWaitStrategy);
+            NetworkInputThread.register(this.socket, this.receiveRing);
+
+            this.connections++;
             this.networkClient.sendAdminJoin();
         } catch (ConnectException ex) {
-            Logger.getLogger(Network.class.getName()).log(Level.SEVERE, ex.getMessage());
-            System.exit(3);
+            Logger.getLogger(Network.class.getName()).log(Level.SEVERE, "{0}:{1} {2}", new Object[] {host, port, ex.getMessage()});
+            return false;
         }
 
         return true;
     }
 
+    /**
+     * Connect again after the connection has been lost, waiting as told by the ReconnectPolicy.
+     * Called by the NetworkClient thread, blocks until connected or given up.
+     * @return true if connected again, false if there is no ReconnectPolicy, it gave up, or close() was called.
+     */
+    protected boolean reconnect ()
+    {
+        ReconnectPolicy policy = this.reconnectPolicy;
+
+        for (int attempt = 1; policy != null && !this.closed && policy.shouldRetry(attempt); attempt++) {
+            long delay = policy.getDelay(attempt);
+
+            Logger.getLogger(Network.class.getName()).log(Level.INFO, "Reconnecting to {0}:{1} in {2} ms (attempt {3})", new Object[] {host, port, delay, attempt});
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            try {
+                synchronized (this) {
+                    if (!this.closed && this.connect(this.host, this.port)) {
+                        return true;
+                    }
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(Network.class.getName()).log(Level.WARNING, "{0}:{1} {2}", new Object[] {host, port, ex.getMessage()});
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the current connection is not the first one, i.e. state has to be resynchronised.
+     */
+    protected boolean isReconnect ()
+    {
+        return this.connections > 1;
+    }
+
+    /**
+     * Reconnect automatically when the connection is lost.
+     * @param policy When to reconnect, or null to stay disconnected (the default).
+     */
+    public void setReconnectPolicy (ReconnectPolicy policy)
+    {
+        this.reconnectPolicy = policy;
+    }
+
     public boolean isConnected ()
     {
-        return this.socket.isConnected() && !this.socket.isClosed();
+        return this.socket != null && this.socket.isConnected() && !this.socket.isClosed();
+    }
+
+    /**
+     * Keep a Snapshot of the Game and Pool of this connection on disk.
+     * An existing snapshot is loaded as provisional state when the NetworkClient starts.
+     * @param file The file to keep the snapshot in, or null to disable snapshots.
+     * @param interval Time between two snapshots.
+     * @param unit Unit of the interval.
+     */
+    public void setSnapshot (File file, long interval, TimeUnit unit)
+    {
+        this.snapshotFile     = file;
+        this.snapshotInterval = unit.toNanos(interval);
     }
 
+    /**
+     * Reconcile the Pool with the server periodically. All clients and companies
+     * are polled, whatever the server does not confirm is removed. This catches
+     * quits and removals that got lost, e.g. during a reconnect.
+     * @param interval Time between two sweeps, 0 to disable reconciliation (the default).
+     * @param unit Unit of the interval.
+     * @see #setReconcileSpacing(long, TimeUnit)
+     */
+    public void setReconcileInterval (long interval, TimeUnit unit)
+    {
+        this.reconcileInterval = unit.toNanos(interval);
+    }
+
+    /**
+     * @return Time between two reconciliation sweeps in nanoseconds, 0 if disabled.
+     */
+    protected long getReconcileInterval ()
+    {
+        return this.reconcileInterval;
+    }
+
+    /**
+     * Check that the server still answers, as a half-open connection to a frozen
+     * server looks connected forever. A ping is sent every interval, the
+     * connection is dropped after the given number of pings went unanswered.
+     * @param interval Time between two pings, 0 to disable the check (the default).
+     * @param unit Unit of the interval.
+     * @param missed Number of unanswered pings after which the connection is dropped.
+     * @see LivenessWatchdog
+     */
+    public void setLivenessCheck (long interval, TimeUnit unit, int missed)
+    {
+        if (missed < 1) {
+            throw new IllegalArgumentException("At least one ping has to be missed");
+        }
+
+        this.livenessInterval = unit.toNanos(interval);
+        this.livenessMissed   = missed;
+    }
+
+    /**
+     * @return Time between two liveness pings in nanoseconds, 0 if disabled.
+     */
+    protected long getLivenessInterval ()
+    {
+        return this.livenessInterval;
+    }
+
+    protected int getLivenessMissed ()
+    {
+        return this.livenessMissed;
+    }
+
+    protected File getSnapshotFile ()
+    {
+        return this.snapshotFile;
+    }
+
+    /**
+     * @return Time between two snapshots in nanoseconds.
+     */
+    protected long getSnapshotInterval ()
+    {
+        return this.snapshotInterval;
+    }
+
+    /**
+     * @return host:port of the server, as passed to connect().
+     */
+    protected String getServerName ()
+    {
+        return this.host + ":" + this.port;
+    }
+
+    /**
+     * Drop the connection. It is established again if a ReconnectPolicy is set.
+     */
     public void disconnect ()
     {
+        if (this.socket == null) {
+            return;
+        }
+
         try {
             this.socket.close();
         } catch (IOException ex) {
             Logger.getLogger(Network.class.getName()).log(Level.SEVERE, null, ex);
         }
-        
+    }
+
+    /**
+     * Drop the connection for good, without reconnecting.
+     */
+    public void close ()
+    {
+        this.closed = true;
+        PollScheduler.cancel(this, null);
+        this.disconnect();
+    }
+
+    /**
+     * @return true if the connection has been closed for good.
+     */
+    protected boolean isClosed ()
+    {
+        return this.closed;
+    }
+
+    /**
+     * Poll the server periodically through the PollScheduler shared by all connections.
+     * If the server offers an update frequency for the type that is at least as
+     * frequent, that frequency is registered instead.
+     * @param type The AdminUpdateType to poll, one of PollScheduler.POLLABLE.
+     * @param interval Nominal time between two polls, adapted to the server.
+     * @param unit Unit of the interval.
+     * @throws IllegalArgumentException if the type can not be polled periodically.
+     */
+    public void schedulePoll (AdminUpdateType type, long interval, TimeUnit unit)
+    {
+        PollScheduler.schedule(this, type, unit.toNanos(interval));
+    }
+
+    /**
+     * Stop polling the server periodically.
+     * @param type The AdminUpdateType to stop polling.
+     */
+    public void cancelPoll (AdminUpdateType type)
+    {
+        PollScheduler.cancel(this, type);
+    }
+
+    /**
+     * Poll the server for everything of a type.
+     * @param type The AdminUpdateType to poll.
+     * @throws IOException
+     */
+    protected void poll (AdminUpdateType type) throws IOException
+    {
+        switch (type) {
+            case ADMIN_UPDATE_DATE:            this.pollDate();           break;
+            case ADMIN_UPDATE_CLIENT_INFO:     this.pollClientInfos();    break;
+            case ADMIN_UPDATE_COMPANY_INFO:    this.pollCompanyInfos();   break;
+            case ADMIN_UPDATE_COMPANY_ECONOMY: this.pollCompanyEconomy(); break;
+            case ADMIN_UPDATE_COMPANY_STATS:   this.pollCompanyStats();   break;
+            case ADMIN_UPDATE_CMD_NAMES:       this.pollCmdNames();       break;
+            default:
+                throw new IllegalArgumentException(type + " can not be polled");
+        }
+    }
+
+    /**
+     * @return Update frequencies registered with the server so far.
+     */
+    protected EnumMap<AdminUpdateType, AdminUpdateFrequency> getUpdateFrequencies ()
+    {
+        synchronized (this.frequencies) {
+            return new EnumMap<AdminUpdateType, AdminUpdateFrequency>(this.frequencies);
+        }
     }
 
     protected OpenTTD getOpenTTD ()
@@ -88,6 +416,65 @@ public class Network
         return protocol;
     }
 
+    /**
+     * @return Pre-aggregated counters and gauges of this connection.
+     */
+    public ServerMetrics getMetrics ()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return Tracker matching polls and pings with their replies.
+     */
+    public LatencyTracker getLatencyTracker ()
+    {
+        return latencyTracker;
+    }
+
+    /**
+     * @return The DoCommandNames of the revision the server runs, null until it is known.
+     */
+    public DoCommandNameRegistry getCommandNames ()
+    {
+        return commandNames;
+    }
+
+    protected void setCommandNames (DoCommandNameRegistry registry)
+    {
+        this.commandNames = registry;
+    }
+
+    /**
+     * Configure the buffer between the NetworkInputThread and the NetworkClient.
+     * Takes effect with the next connect.
+     * @param capacity Number of packets that can be buffered.
+     * @param waitStrategy How the threads wait for each other.
+     */
+    public void setReceiveBuffer (int capacity, PacketRing.WaitStrategy waitStrategy)
+    {
+        this.receiveCapacity     = capacity;
+        this.receiveWaitStrategy = waitStrategy;
+    }
+
+    protected PacketRing getReceiveRing ()
+    {
+        return receiveRing;
+    }
+
+    /**
+     * @return The rate limited outbound chat of this connection.
+     */
+    public ChatController getChatController ()
+    {
+        return chat;
+    }
+
+    protected NetworkClient getNetworkClient ()
+    {
+        return networkClient;
+    }
+
     protected Socket getSocket ()
     {
         return socket;
@@ -98,99 +485,121 @@ public class Network
         networkClient.start();
     }
     
-    public void serverMessagePublic (String msg) throws IOException
+    public Future<Void> serverMessagePublic (String msg) throws IOException
     {
-        networkClient.sendAdminChat(NetworkAction.NETWORK_ACTION_SERVER_MESSAGE, DestType.DESTTYPE_BROADCAST, 0, msg, 0);
+        return chat.send(NetworkAction.NETWORK_ACTION_SERVER_MESSAGE, DestType.DESTTYPE_BROADCAST, 0, msg, 0);
     }
 
-    public void serverMessagePrivate (long client, String msg) throws IOException
+    public Future<Void> serverMessagePrivate (long client, String msg) throws IOException
     {
-        networkClient.sendAdminChat(NetworkAction.NETWORK_ACTION_SERVER_MESSAGE, DestType.DESTTYPE_CLIENT, client, msg, 0);
+        return chat.send(NetworkAction.NETWORK_ACTION_SERVER_MESSAGE, DestType.DESTTYPE_CLIENT, client, msg, 0);
     }
 
-    public void chatPublic (String msg) throws IOException
+    public Future<Void> chatPublic (String msg) throws IOException
     {
-        networkClient.sendAdminChat(NetworkAction.NETWORK_ACTION_CHAT, DestType.DESTTYPE_BROADCAST, 0, msg, 0);
+        return chat.send(NetworkAction.NETWORK_ACTION_CHAT, DestType.DESTTYPE_BROADCAST, 0, msg, 0);
     }
 
-    public void chatPrivate (long client, String msg) throws IOException
+    public Future<Void> chatPrivate (long client, String msg) throws IOException
     {
-        networkClient.sendAdminChat(NetworkAction.NETWORK_ACTION_CHAT_CLIENT, DestType.DESTTYPE_CLIENT, client, msg, 0);
+        return chat.send(NetworkAction.NETWORK_ACTION_CHAT_CLIENT, DestType.DESTTYPE_CLIENT, client, msg, 0);
     }
 
-    public void chatTeam (int company, String msg) throws IOException
+    public Future<Void> chatTeam (int company, String msg) throws IOException
     {
-        networkClient.sendAdminChat(NetworkAction.NETWORK_ACTION_SERVER_MESSAGE, DestType.DESTTYPE_TEAM, company, msg, 0);
+        return chat.send(NetworkAction.NETWORK_ACTION_SERVER_MESSAGE, DestType.DESTTYPE_TEAM, company, msg, 0);
     }
 
     
-    public synchronized void sendAdminUpdateFrequency (AdminUpdateType type, AdminUpdateFrequency freq) throws IOException
+    public void sendAdminUpdateFrequency (AdminUpdateType type, AdminUpdateFrequency freq) throws IOException
     {
         networkClient.sendAdminUpdateFrequency(type, freq);
+        latencyTracker.frequencyRegistered(type, freq);
+
+        synchronized (this.frequencies) {
+            this.frequencies.put(type, freq);
+        }
     }
 
-    public synchronized void sendAdminRcon (String command) throws IOException
+    public void sendAdminRcon (String command) throws IOException
     {
         if (!command.isEmpty())
             networkClient.sendAdminRcon(command);
     }
 
-    public synchronized void sendAdminQuit () throws IOException
+    /**
+     * Send a remote console command with the given priority instead of the
+     * one derived from the command.
+     * @param command The command.
+     * @param priority The PacketPriority to send it with.
+     * @throws IOException
+     */
+    public void sendAdminRcon (String command, PacketPriority priority) throws IOException
+    {
+        if (!command.isEmpty())
+            networkClient.sendAdminRcon(command, priority);
+    }
+
+    public void sendAdminQuit () throws IOException
     {
         networkClient.sendAdminQuit();
     }
 
-    public synchronized void sendAdminChat (NetworkAction action, DestType type, long dest, String message, long data) throws IOException
+    /**
+     * Queue a chat message with the ChatController of this connection.
+     * @see ChatController#send(NetworkAction, DestType, long, String, long)
+     */
+    public Future<Void> sendAdminChat (NetworkAction action, DestType type, long dest, String message, long data) throws IOException
     {
-        networkClient.sendAdminChat(action, type, dest, message, data);
+        return chat.send(action, type, dest, message, data);
     }
     
-    public synchronized void sendAdminGamescript (String json) throws IOException
+    public void sendAdminGamescript (String json) throws IOException
     {
         networkClient.sendAdminGamescript(json);
     }
 
-    public synchronized void sendAdminPing (long d1) throws IOException
+    public void sendAdminPing (long d1) throws IOException
     {
         networkClient.sendAdminPing(d1);
     }
 
-    public synchronized void pollDate () throws IOException
+    public void pollDate () throws IOException
     {
         networkClient.pollDate();
     }
 
-    public synchronized void pollCompanyStats () throws IOException
+    public void pollCompanyStats () throws IOException
     {
         networkClient.pollCompanyStats();
     }
 
-    public synchronized void pollCompanyInfos () throws IOException
+    public void pollCompanyInfos () throws IOException
     {
         networkClient.pollCompanyInfos();
     }
 
-    public synchronized void pollCompanyInfo (int companyId) throws IOException
+    public void pollCompanyInfo (int companyId) throws IOException
     {
         networkClient.pollCompanyInfo(companyId);
     }
 
-    public synchronized void pollCompanyEconomy () throws IOException
+    public void pollCompanyEconomy () throws IOException
     {
         networkClient.pollCompanyEconomy();
     }
 
-    public synchronized void pollClientInfos () throws IOException
+    public void pollClientInfos () throws IOException
     {
         networkClient.pollClientInfos();
     }
 
-    public synchronized void pollClientInfo (long clientId) throws IOException
+    public void pollClientInfo (long clientId) throws IOException
     {
         networkClient.pollClientInfo(clientId);
     }
 
-    public synchronized void pollCmdNames () throws IOException
+    public void pollCmdNames () throws IOException
     {
         networkClient.pollCmdNames();
     }
@@ -18,9 +18,20 @@
 
 package org.openttd.network;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.math.BigInteger;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,7 +44,11 @@ import org.openttd.Game;
 import org.openttd.Map;
 import org.openttd.OpenTTD;
 import org.openttd.RconBuffer;
+import org.openttd.Snapshot;
+import org.openttd.StringFunc;
 import org.openttd.enums.*;
+import org.openttd.event.*;
+import org.openttd.network.codec.*;
 
 /**
  *
@@ -44,36 +59,222 @@ public class NetworkClient extends Thread
     private Network network;
     private RconBuffer rconBuffer;
 
+    /** Events with an overridden OpenTTD callback. */
+    private final Set<Class<? extends Event>> overridden;
+
+    /** Size of the chat buffer of the server in bytes, including the terminating NUL. */
+    protected static final int NETWORK_CHAT_LENGTH = 900;
+
+    /* reconciliation sweep, clients and companies not tagged with the current generation are stale */
+    private long    generation    = 0;
+    private boolean sweeping      = false;
+    private long    sweepPayload  = 0;
+    private long    sweepStarted  = 0;
+    private long    nextReconcile = 0;
+
+    /** Whether CMD_NAMES has been polled for an unknown command since the last welcome. */
+    private boolean cmdNamesPolled = false;
+
+    /** Whether the Pool holds provisional state from a Snapshot, not yet confirmed by the server. */
+    private boolean provisional  = false;
+    private long    nextSnapshot = 0;
+
+    /** Writes snapshot files of all connections, off the NetworkClient threads. */
+    private static final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread (Runnable r)
+        {
+            Thread t = new Thread(r, "joan-snapshot-writer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** Packets waiting for a client or company to become known. */
+    private final DeferredPackets deferred = new DeferredPackets();
+    private boolean replaying = false;
+
+    /** Client and company polls in flight or requested by the current batch. */
+    private final PollCoalescer polls = new PollCoalescer();
+    private final LivenessWatchdog watchdog;
+
+    /** Packets drained from the PacketRing in one go. */
+    private final Packet[] batch = new Packet[32];
+
+    /** Time spent in callbacks while dispatching the current packet, only measured while tracing. */
+    private long callbackNanos = 0;
+
+    /* decoders generated from admin.protocol, reused for every packet of their type */
+    private final ServerErrorCodec          serverError          = new ServerErrorCodec();
+    private final ServerWelcomeCodec        serverWelcome        = new ServerWelcomeCodec();
+    private final ServerDateCodec           serverDate           = new ServerDateCodec();
+    private final ServerClientJoinCodec     serverClientJoin     = new ServerClientJoinCodec();
+    private final ServerClientInfoCodec     serverClientInfo     = new ServerClientInfoCodec();
+    private final ServerClientUpdateCodec   serverClientUpdate   = new ServerClientUpdateCodec();
+    private final ServerClientQuitCodec     serverClientQuit     = new ServerClientQuitCodec();
+    private final ServerClientErrorCodec    serverClientError    = new ServerClientErrorCodec();
+    private final ServerCompanyNewCodec     serverCompanyNew     = new ServerCompanyNewCodec();
+    private final ServerCompanyInfoCodec    serverCompanyInfo    = new ServerCompanyInfoCodec();
+    private final ServerCompanyUpdateCodec  serverCompanyUpdate  = new ServerCompanyUpdateCodec();
+    private final ServerCompanyEconomyCodec serverCompanyEconomy = new ServerCompanyEconomyCodec();
+    private final ServerCompanyStatsCodec   serverCompanyStats   = new ServerCompanyStatsCodec();
+    private final ServerCompanyRemoveCodec  serverCompanyRemove  = new ServerCompanyRemoveCodec();
+    private final ServerChatCodec           serverChat           = new ServerChatCodec();
+    private final ServerRconCodec           serverRcon           = new ServerRconCodec();
+    private final ServerConsoleCodec        serverConsole        = new ServerConsoleCodec();
+    private final ServerCmdLoggingCodec     serverCmdLogging     = new ServerCmdLoggingCodec();
+    private final ServerGamescriptCodec     serverGamescript     = new ServerGamescriptCodec();
+    private final ServerPongCodec           serverPong           = new ServerPongCodec();
+
+    /* flyweight views, reused for every packet of their type */
+    private final CmdLoggingView cmdLoggingView;
+    private final ConsoleView    consoleView;
+    private final ChatView       chatView;
+    private final GamescriptView gamescriptView;
+
     protected NetworkClient (Network network)
     {
         this.network = network;
         this.rconBuffer = new RconBuffer();
+        this.watchdog   = new LivenessWatchdog(network);
+        this.cmdLoggingView = new CmdLoggingView(network.getOpenTTD());
+        this.consoleView    = new ConsoleView(network.getOpenTTD());
+        this.chatView       = new ChatView(network.getOpenTTD());
+        this.gamescriptView = new GamescriptView(network.getOpenTTD());
+        this.overridden = overriddenCallbacks(network.getOpenTTD().getClass());
         Logger.getLogger(Network.class.getName()).setLevel(network.getOpenTTD().loglevel);
     }
 
     @Override
     public void run ()
     {
-        while (network.isConnected())
-            receive();
+        /* spread the first sweeps of connections started together */
+        this.nextReconcile = System.nanoTime() + (long) (Math.random() * network.getReconcileInterval());
+        this.restoreSnapshot();
+
+        do {
+            this.watchdog.reset();
+
+            /* keep going until the packets received before a disconnect have been handled */
+            while (network.isConnected() || (network.getReceiveRing() != null && !network.getReceiveRing().isEmpty()))
+                receive();
+        } while (network.reconnect());
     }
 
     public void send (PacketType type) throws IOException
     {
         Packet p = new Packet(network.getSocket(), type);
+        this.queue(p);
+    }
+
+    /**
+     * Hand a Packet over to the NetworkOutputThread.
+     * @param p Packet to be sent.
+     */
+    private void queue (Packet p)
+    {
+        network.getMetrics().packetSent(p.getType().getValue(), p.size());
         NetworkOutputThread.append(p);
     }
 
     public void receive ()
     {
         try {
-            Packet p = NetworkInputThread.getNext(network.getSocket());
-            delegatePacket(p);
+            /* wake up often enough for the watchdog to keep its interval */
+            long timeout = TimeUnit.SECONDS.toNanos(1);
+            if (network.getLivenessInterval() > 0) {
+                timeout = Math.min(timeout, network.getLivenessInterval());
+            }
+
+            int n = network.getReceiveRing().drainTo(this.batch, timeout, TimeUnit.NANOSECONDS);
+
+            for (int i = 0; i < n; i++) {
+                Packet p = this.batch[i];
+                this.batch[i] = null;
+
+                handlePacket(p);
+            }
+
+            this.flushPolls();
+
+            int expired = this.deferred.expire();
+            if (expired > 0) {
+                Logger.getLogger(Network.class.getName()).log(Level.INFO, "Dropped {0} packets waiting for unknown clients or companies", expired);
+            }
+
+            this.takeSnapshot();
+            this.reconcile();
+            this.watchdog.check(this);
         } catch (InterruptedException ex) {
             Logger.getLogger(NetworkClient.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
+    /**
+     * Send the client and company polls requested while handling the last batch.
+     */
+    private void flushPolls ()
+    {
+        Pool pool = network.getOpenTTD().getPool();
+
+        try {
+            this.flushPolls(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, pool.getClientPool().size());
+            this.flushPolls(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, pool.getCompanyPool().size());
+        } catch (IOException ex) {
+            Logger.getLogger(Network.class.getName()).log(Level.SEVERE, "Failed sending polls", ex);
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(Network.class.getName()).log(Level.SEVERE, "Failed sending polls", ex);
+        } catch (IllegalStateException ex) {
+            /* the outbound queue is full, the polls are requested again with the next batch */
+            Logger.getLogger(Network.class.getName()).log(Level.WARNING, "Failed sending polls", ex);
+        }
+    }
+
+    private void flushPolls (AdminUpdateType type, int known) throws IOException
+    {
+        long[] ids = this.polls.flush(type);
+
+        if (ids.length == 0) {
+            return;
+        }
+
+        try {
+            if (PollCoalescer.collapse(ids.length, known)) {
+                this.sendAdminPoll(type, Long.MAX_VALUE);
+                return;
+            }
+
+            for (long id : ids) {
+                this.sendAdminPoll(type, id);
+            }
+        } catch (IllegalStateException ex) {
+            this.polls.retry(type, ids);
+            throw ex;
+        }
+    }
+
+    private void handlePacket (Packet p)
+    {
+        network.getMetrics().packetReceived(p.getType().getValue(), p.length());
+
+        PacketTracer tracer = Network.getPacketTracer();
+        if (tracer != null) {
+            this.callbackNanos = 0;
+
+            long start = System.nanoTime();
+            delegatePacket(p);
+            long nanos = System.nanoTime() - start;
+
+            SocketAddress remote = network.getSocket().getRemoteSocketAddress();
+            tracer.onDispatch(remote, p.getType(), p.length(), nanos);
+            tracer.onDecode(remote, p.getType(), p.length(), nanos - this.callbackNanos);
+            tracer.onCallback(remote, p.getType(), p.length(), this.callbackNanos);
+        } else {
+            delegatePacket(p);
+        }
+    }
+
     private void delegatePacket (Packet p)
     {
         try {
@@ -94,6 +295,351 @@ public class NetworkClient extends Thread
         }
     }
     
+    /**
+     * Check if anybody is interested in events of a certain type, either by
+     * overriding the OpenTTD callback or by listening on the EventBus.
+     * Packets nobody is interested in are decoded only as far as needed to
+     * maintain the pools and the Game.
+     * @param type The type of event.
+     * @return true if the event should be decoded and dispatched.
+     */
+    private boolean wants (Class<? extends Event> type)
+    {
+        return this.overridden.contains(type) || network.getOpenTTD().getEventBus().hasSubscribers(type);
+    }
+
+    /**
+     * Find the events whose on*() callback is overridden by the given OpenTTD subclass.
+     * @param clazz The class to inspect.
+     * @return Set of the event classes, named like the callback.
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<Class<? extends Event>> overriddenCallbacks (Class<? extends OpenTTD> clazz)
+    {
+        Set<Class<? extends Event>> result = new HashSet<Class<? extends Event>>();
+
+        for (Method m : clazz.getMethods()) {
+            if (!m.getName().startsWith("on") || m.getDeclaringClass() == OpenTTD.class || m.getDeclaringClass() == Object.class) {
+                continue;
+            }
+
+            try {
+                Class<?> type = Class.forName(Event.class.getPackage().getName() + "." + m.getName().substring(2) + "Event");
+
+                if (Event.class.isAssignableFrom(type)) {
+                    result.add((Class<? extends Event>) type);
+                }
+            } catch (ClassNotFoundException ex) {
+                /* not a callback, just a method starting with "on" */
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Hand an event to the OpenTTD callbacks and to the listeners on its EventBus.
+     * @param event The event to dispatch.
+     */
+    private void dispatch (Event event)
+    {
+        OpenTTD openttd = network.getOpenTTD();
+        long start = (Network.getPacketTracer() != null) ? System.nanoTime() : 0;
+
+        event.deliver(openttd);
+        openttd.getEventBus().publish(event);
+
+        if (start != 0) {
+            this.callbackNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Publish a flyweight view on a Packet, if anybody listens for it.
+     * The view is only valid during the dispatch.
+     * @param view The view to point at the Packet.
+     * @param p The Packet, its read position is not touched.
+     */
+    private void dispatchView (PacketView view, Packet p)
+    {
+        /* a replayed Packet has been viewed already */
+        if (this.replaying || !this.wants(view.getClass())) {
+            return;
+        }
+
+        view.wrap(p);
+        try {
+            this.dispatch(view);
+        } finally {
+            view.release();
+        }
+    }
+
+    /**
+     * Poll an unknown client with the next flush, the Packet is handled again once it is known.
+     * @param clientId The client the Packet refers to.
+     * @param p The Packet.
+     * @throws IOException
+     */
+    private void deferClient (long clientId, Packet p) throws IOException
+    {
+        this.deferred.deferClient(clientId, p);
+        this.polls.request(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, clientId);
+    }
+
+    /**
+     * Poll an unknown company with the next flush, the Packet is handled again once it is known.
+     * @param companyId The company the Packet refers to.
+     * @param p The Packet.
+     * @throws IOException
+     */
+    private void deferCompany (int companyId, Packet p) throws IOException
+    {
+        this.deferred.deferCompany(companyId, p);
+        this.polls.request(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, companyId);
+    }
+
+    /**
+     * Handle packets released from the DeferredPackets, in order.
+     * @param packets The packets to handle again.
+     */
+    private void replay (List<Packet> packets)
+    {
+        if (packets.isEmpty()) {
+            return;
+        }
+
+        boolean outer = this.replaying;
+        this.replaying = true;
+
+        try {
+            for (Packet p : packets) {
+                p.rewind();
+                this.delegatePacket(p);
+            }
+        } finally {
+            this.replaying = outer;
+        }
+    }
+
+    /**
+     * Bring the Pool up to date after a reconnect.
+     * The update frequencies are registered again and everything is polled at
+     * once. The cached state is kept meanwhile, see sweep().
+     */
+    private void resync ()
+    {
+        try {
+            for (java.util.Map.Entry<AdminUpdateType, AdminUpdateFrequency> e : network.getUpdateFrequencies().entrySet()) {
+                if (network.getProtocol().isSupported(e.getKey(), e.getValue())) {
+                    this.sendAdminUpdateFrequency(e.getKey(), e.getValue());
+                }
+            }
+
+            this.sweep(true);
+        } catch (IOException ex) {
+            Logger.getLogger(Network.class.getName()).log(Level.SEVERE, "Resync failed", ex);
+            this.sweeping = false;
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(Network.class.getName()).log(Level.SEVERE, "Resync failed", ex);
+            this.sweeping = false;
+        } catch (IllegalStateException ex) {
+            /* the outbound queue is full, the next reconciliation sweep catches up */
+            Logger.getLogger(Network.class.getName()).log(Level.WARNING, "Resync failed", ex);
+            this.sweeping = false;
+        }
+    }
+
+    /**
+     * Start a reconciliation sweep if one is due and the fleet-wide rate
+     * limit allows for it, see Network.setReconcileInterval().
+     */
+    private void reconcile ()
+    {
+        long interval = network.getReconcileInterval();
+        long now      = System.nanoTime();
+
+        /* give up on a sweep whose marker got lost */
+        if (this.sweeping && now - this.sweepStarted > LatencyTracker.TIMEOUT_NANOS) {
+            Logger.getLogger(Network.class.getName()).log(Level.WARNING, "Sweep of {0} timed out", network.getServerName());
+            this.sweeping = false;
+        }
+
+        if (interval <= 0 || now - this.nextReconcile < 0 || this.sweeping || !network.isConnected()
+                || !network.getProtocol().isSupported(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, AdminUpdateFrequency.ADMIN_FREQUENCY_POLL)
+                || !network.getProtocol().isSupported(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, AdminUpdateFrequency.ADMIN_FREQUENCY_POLL)) {
+            return;
+        }
+
+        /* try again with the next batch */
+        if (!Network.claimReconcileSlot()) {
+            return;
+        }
+
+        this.nextReconcile = now + interval;
+
+        try {
+            this.sweep(false);
+        } catch (IOException ex) {
+            Logger.getLogger(Network.class.getName()).log(Level.WARNING, "Reconciliation failed", ex);
+            this.sweeping = false;
+        } catch (IllegalStateException ex) {
+            /* the outbound queue is full, try again with the next batch */
+            Logger.getLogger(Network.class.getName()).log(Level.WARNING, "Reconciliation failed", ex);
+            this.sweeping      = false;
+            this.nextReconcile = now;
+        }
+    }
+
+    /**
+     * Poll all clients and companies under a new generation. Every reply tags
+     * its entry with the generation, the ping sent last tells when all replies
+     * have arrived, see finishSweep().
+     * @param full Poll the date, command names, stats and economy as well.
+     * @throws IOException
+     */
+    private void sweep (boolean full) throws IOException
+    {
+        this.generation++;
+        this.sweeping     = true;
+        this.sweepStarted = System.nanoTime();
+        this.sweepPayload = this.sweepStarted & 0xFFFFFFFFL;
+
+        if (full) {
+            /* the names are shared with all servers of this revision */
+            if (network.getCommandNames().isEmpty()) {
+                this.pollCmdNames();
+            }
+            this.pollDate();
+        }
+
+        this.pollClientInfos();
+        this.pollCompanyInfos();
+
+        if (full) {
+            this.pollCompanyStats();
+            this.pollCompanyEconomy();
+        }
+
+        /* polls are BULK, the marker has to queue behind them */
+        this.sendAdminPing(this.sweepPayload, PacketPriority.BULK);
+    }
+
+    /**
+     * All replies to the polls of sweep() have arrived, drop the clients and
+     * companies the server did not confirm.
+     * @param pool The pool to clean up.
+     */
+    private void finishSweep (Pool pool)
+    {
+        List<Long> clients      = new ArrayList<Long>();
+        List<Integer> companies = new ArrayList<Integer>();
+
+        for (Client client : pool.getClientPool()) {
+            if (client.generation != this.generation) {
+                clients.add(client.id);
+            }
+        }
+
+        for (Company company : pool.getCompanyPool()) {
+            /* the spectator pseudo company is never announced by the server */
+            if (Company.isValid(company.id) && company.generation != this.generation) {
+                companies.add(company.id);
+            }
+        }
+
+        for (Long clientId : clients) {
+            pool.getClientPool().remove(clientId);
+        }
+
+        for (Integer companyId : companies) {
+            pool.getCompanyPool().remove(companyId);
+            network.getMetrics().removeCompany(companyId);
+        }
+
+        this.updatePoolMetrics(pool);
+        this.sweeping    = false;
+        this.provisional = false;
+
+        Level level = (clients.isEmpty() && companies.isEmpty()) ? Level.FINE : Level.INFO;
+        Logger.getLogger(Network.class.getName()).log(level, "Sweep #{0} done, dropped {1} clients and {2} companies", new Object[] {this.generation, clients.size(), companies.size()});
+    }
+
+    /**
+     * Load the Snapshot of the previous run, if there is one.
+     */
+    private void restoreSnapshot ()
+    {
+        File file = network.getSnapshotFile();
+
+        this.nextSnapshot = System.nanoTime() + network.getSnapshotInterval();
+
+        if (file == null) {
+            return;
+        }
+
+        try {
+            byte[] data = Snapshot.read(file);
+
+            if (data != null) {
+                long age = Snapshot.decode(network.getOpenTTD(), network.getServerName(), data);
+
+                this.provisional = true;
+
+                String revision = network.getOpenTTD().getGame().getRevision();
+                if (revision != null) {
+                    network.setCommandNames(DoCommandNameRegistry.forRevision(revision));
+                }
+
+                this.updatePoolMetrics(network.getOpenTTD().getPool());
+                Logger.getLogger(Network.class.getName()).log(Level.INFO, "Restored snapshot of {0}, {1} s old", new Object[] {network.getServerName(), age / 1000});
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(Network.class.getName()).log(Level.WARNING, "Ignoring snapshot " + file, ex);
+        }
+    }
+
+    /**
+     * Write a Snapshot if one is due. The state is encoded on this thread,
+     * so it is consistent, the file is written in the background.
+     */
+    private void takeSnapshot ()
+    {
+        final File file = network.getSnapshotFile();
+        long now = System.nanoTime();
+
+        /* only write state that has been confirmed by the server */
+        if (file == null || now - this.nextSnapshot < 0 || this.provisional || this.sweeping || !network.isConnected()) {
+            return;
+        }
+
+        this.nextSnapshot = now + network.getSnapshotInterval();
+
+        final byte[] data = Snapshot.encode(network.getOpenTTD(), network.getServerName());
+
+        snapshotWriter.execute(new Runnable()
+        {
+            @Override
+            public void run ()
+            {
+                try {
+                    Snapshot.write(file, data);
+                } catch (IOException ex) {
+                    Logger.getLogger(Network.class.getName()).log(Level.WARNING, "Failed writing snapshot " + file, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Publish the current pool sizes to the metrics.
+     * @param pool The pool that has been modified.
+     */
+    private void updatePoolMetrics (Pool pool)
+    {
+        network.getMetrics().setPoolSizes(pool.getClientPool().size(), pool.getCompanyPool().size());
+    }
+
     private synchronized void handleCmdPause (long p1, long p2)
     {
         OpenTTD openttd = network.getOpenTTD();
@@ -101,8 +647,12 @@ public class NetworkClient extends Thread
         boolean paused = p2 != 0;
         
         openttd.getGame().setPauseMode(pm, paused);
+        network.getMetrics().setPaused(openttd.getGame().isPaused());
+        network.getMetrics().getGameSpeed().pauseChanged(openttd.getGame().isPaused());
         
-        openttd.onPause(pm, paused);
+        if (this.wants(PauseEvent.class)) {
+            this.dispatch(new PauseEvent(openttd, pm, paused));
+        }
     }
     
     public synchronized void pollDate () throws IOException
@@ -112,12 +662,19 @@ public class NetworkClient extends Thread
 
     public synchronized void pollClientInfos () throws IOException
     {
-        pollClientInfo(Long.MAX_VALUE);
+        sendAdminPoll(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, Long.MAX_VALUE);
     }
 
+    /**
+     * Poll a single client, unless a poll for it is in flight already.
+     * @param clientId The client to poll.
+     * @throws IOException
+     */
     public synchronized void pollClientInfo (long clientId) throws IOException
     {
-        sendAdminPoll(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, clientId);
+        if (this.polls.send(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, clientId)) {
+            sendAdminPoll(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, clientId);
+        }
     }
 
     public synchronized void pollCompanyInfos () throws IOException
@@ -125,9 +682,16 @@ public class NetworkClient extends Thread
         sendAdminPoll(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, Long.MAX_VALUE);
     }
 
+    /**
+     * Poll a single company, unless a poll for it is in flight already.
+     * @param companyId The company to poll.
+     * @throws IOException
+     */
     public synchronized void pollCompanyInfo (int companyId) throws IOException
     {
-        sendAdminPoll(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, companyId);
+        if (this.polls.send(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, companyId)) {
+            sendAdminPoll(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, companyId);
+        }
     }
 
     public synchronized void pollCompanyEconomy () throws IOException
@@ -150,113 +714,178 @@ public class NetworkClient extends Thread
     public synchronized void receiveServerFull (OpenTTD openttd, Packet p)
     {
         network.disconnect();
-        openttd.onServerFull();
+        if (this.wants(ServerFullEvent.class)) {
+            this.dispatch(new ServerFullEvent(openttd));
+        }
     }
 
     public synchronized void receiveServerBanned (OpenTTD openttd, Packet p)
     {
-        network.disconnect();
-        openttd.onServerBanned();
+        /* retrying will not help */
+        network.close();
+        if (this.wants(ServerBannedEvent.class)) {
+            this.dispatch(new ServerBannedEvent(openttd));
+        }
     }
 
     public synchronized void receiveServerError (OpenTTD openttd, Packet p)
     {
         network.disconnect();
-        NetworkErrorCode error = NetworkErrorCode.valueOf(p.readUint8());
-        openttd.onServerError(error);
+        this.serverError.decode(p);
+
+        NetworkErrorCode error = NetworkErrorCode.valueOf(this.serverError.error);
+        if (this.wants(ServerErrorEvent.class)) {
+            this.dispatch(new ServerErrorEvent(openttd, error));
+        }
     }
 
     public synchronized void receiveServerWelcome (OpenTTD openttd, Packet p)
     {
-        Game game = new Game();
+        ServerWelcomeCodec c = this.serverWelcome;
+        Game game = openttd.getGame();
         Map  map  = new Map();
 
-        game.name      = p.readString();
-        game.versionGame   = p.readString();
-        game.dedicated = p.readBool();
+        c.decode(p);
+
+        game.name        = c.serverName;
+        game.versionGame = c.version;
+        game.dedicated   = c.dedicated;
+
+        network.setCommandNames(DoCommandNameRegistry.forRevision(c.version));
+        this.cmdNamesPolled = false;
+        this.polls.clear();
+        this.watchdog.welcomed();
 
-        map.name = p.readString();
-        map.seed = p.readUint32();
-        map.landscape = Landscape.valueOf(p.readUint8());
-        map.dateStart = new GameDate(p.readUint32());
-        map.width      = p.readUint16();
-        map.height     = p.readUint16();
+        map.name      = c.mapName;
+        map.seed      = c.seed;
+        map.landscape = Landscape.valueOf(c.landscape);
+        map.dateStart = new GameDate(c.startDate);
+        map.width     = c.width;
+        map.height    = c.height;
 
         game.map = map;
 
-        openttd.onServerWelcome(game);
+        network.getMetrics().getGameSpeed().reset();
+        if (this.wants(ServerWelcomeEvent.class)) {
+            this.dispatch(new ServerWelcomeEvent(openttd, game));
+        }
+
+        /* after a reconnect or a restore, the cached state has to be confirmed */
+        if (network.isReconnect() || this.provisional) {
+            this.resync();
+        }
     }
 
     public synchronized void receiveServerDate (OpenTTD openttd, Packet p)
     {
-        GameDate date = new GameDate(p.readUint32());
+        this.serverDate.decode(p);
+
+        long days     = this.serverDate.date;
+        GameDate date = new GameDate(days);
+
+        boolean polled = network.getLatencyTracker().replyReceived(AdminUpdateType.ADMIN_UPDATE_DATE);
+        network.getMetrics().getGameSpeed().dateReceived(days, polled);
 
         openttd.getGame().getMap().dateCurrent = date;
 
-        openttd.onServerDate(date);
+        if (this.wants(ServerDateEvent.class)) {
+            this.dispatch(new ServerDateEvent(openttd, date));
+        }
     }
 
     public synchronized void receiveServerClientJoin (OpenTTD openttd, Packet p) throws IOException
     {
+        this.serverClientJoin.decode(p);
+
         Pool pool     = openttd.getPool();
-        long clientId = p.readUint32();
+        long clientId = this.serverClientJoin.clientId;
 
         if (pool.getClientPool().exists(clientId)) {
             Client client = pool.getClientPool().get(clientId);
 
-            openttd.onClientJoin(client);
+            if (this.wants(ClientJoinEvent.class)) {
+                this.dispatch(new ClientJoinEvent(openttd, client));
+            }
             return;
         }
 
         /* we know nothing about this client, request an update */
-        pollClientInfo(clientId);
+        this.deferClient(clientId, p);
         Logger.getLogger(Network.class.getName()).log(Level.INFO, "Unknown client joined #{0}", clientId);
     }
 
     public synchronized void receiveServerClientInfo (OpenTTD openttd, Packet p)
     {
-        Client client = new Client(p.readUint32());
+        ServerClientInfoCodec c = this.serverClientInfo;
+        c.decode(p);
+
+        network.getLatencyTracker().replyReceived(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, c.clientId);
+        this.polls.replyReceived(AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO, c.clientId);
 
-        client.address   = p.readString();
-        client.name      = p.readString();
-        client.language  = NetworkLanguage.valueOf(p.readUint8());
-        client.joindate  = new GameDate(p.readUint32());
-        client.companyId = p.readUint8();
+        /* sweeps and polls answer for known clients too, keep their object */
+        Pool pool     = openttd.getPool();
+        Client client = pool.getClientPool().get(c.clientId);
+
+        if (client == null) {
+            client = new Client(c.clientId);
+            pool.getClientPool().add(client);
+        }
+
+        client.address   = c.address;
+        client.name      = c.name;
+        client.language  = NetworkLanguage.valueOf(c.language);
+        client.joindate  = new GameDate(c.joinDate);
+        client.companyId = c.companyId;
+        client.generation = this.generation;
 
-        openttd.getPool().getClientPool().add(client);
+        this.updatePoolMetrics(pool);
 
-        openttd.onClientInfo(client);
+
+        if (this.wants(ClientInfoEvent.class)) {
+            this.dispatch(new ClientInfoEvent(openttd, client));
+        }
+
+        this.replay(this.deferred.releaseClient(client.id));
     }
 
     public synchronized void receiveServerClientUpdate (OpenTTD openttd, Packet p) throws IOException
     {
+        this.serverClientUpdate.decode(p);
+
         Pool pool     = openttd.getPool();
-        long clientId = p.readUint32();
+        long clientId = this.serverClientUpdate.clientId;
 
         if (pool.getClientPool().exists(clientId)) {
             Client client = pool.getClientPool().get(clientId);
 
-            client.name      = p.readString();
-            client.companyId = p.readUint8();
+            client.name      = this.serverClientUpdate.name;
+            client.companyId = this.serverClientUpdate.companyId;
 
-            openttd.onClientUpdate(client);
+            if (this.wants(ClientUpdateEvent.class)) {
+                this.dispatch(new ClientUpdateEvent(openttd, client));
+            }
             return;
         }
 
         /* we know nothing about this client, request an update */
-        pollClientInfo(clientId);
+        this.deferClient(clientId, p);
         Logger.getLogger(Network.class.getName()).log(Level.INFO, "Unknown client update #{0}", clientId);
     }
 
     public synchronized void receiveServerClientQuit (OpenTTD openttd, Packet p)
     {
+        this.serverClientQuit.decode(p);
+
         Pool pool     = openttd.getPool();
-        long clientId = p.readUint32();
+        long clientId = this.serverClientQuit.clientId;
 
         if (pool.getClientPool().exists(clientId)) {
             Client client = pool.getClientPool().remove(clientId);
+            this.updatePoolMetrics(pool);
 
-            openttd.onClientQuit(client);
+            if (this.wants(ClientQuitEvent.class)) {
+                this.dispatch(new ClientQuitEvent(openttd, client));
+            }
             return;
         }
 
@@ -266,15 +895,20 @@ public class NetworkClient extends Thread
 
     public synchronized void receiveServerClientError (OpenTTD openttd, Packet p)
     {
+        this.serverClientError.decode(p);
+
         Pool pool     = openttd.getPool();
-        long clientId = p.readUint32();
+        long clientId = this.serverClientError.clientId;
 
-        NetworkErrorCode error = NetworkErrorCode.valueOf(p.readUint8());
+        NetworkErrorCode error = NetworkErrorCode.valueOf(this.serverClientError.error);
 
         if (pool.getClientPool().exists(clientId)) {
             Client client = pool.getClientPool().remove(clientId);
+            this.updatePoolMetrics(pool);
 
-            openttd.onClientError(client, error);
+            if (this.wants(ClientErrorEvent.class)) {
+                this.dispatch(new ClientErrorEvent(openttd, client, error));
+            }
             return;
         }
 
@@ -284,89 +918,122 @@ public class NetworkClient extends Thread
 
     public synchronized void receiveServerCompanyNew (OpenTTD openttd, Packet p) throws IOException
     {
+        this.serverCompanyNew.decode(p);
+
         Pool pool     = openttd.getPool();
-        int companyId = p.readUint8();
+        int companyId = this.serverCompanyNew.companyId;
 
         if (pool.getCompanyPool().exists(companyId)) {
             Company company = pool.getCompanyPool().get(companyId);
 
-            openttd.onCompanyNew(company);
+            if (this.wants(CompanyNewEvent.class)) {
+                this.dispatch(new CompanyNewEvent(openttd, company));
+            }
             return;
         }
 
         /* we know nothing about this ccompany, request an update */
-        pollCompanyInfo(companyId);
+        this.deferCompany(companyId, p);
         Logger.getLogger(Network.class.getName()).log(Level.INFO, "Unknown company new #{0}", companyId);
     }
 
     public synchronized void receiveServerCompanyInfo (OpenTTD openttd, Packet p)
     {
-        Company company = new Company(p.readUint8());
+        ServerCompanyInfoCodec c = this.serverCompanyInfo;
+        c.decode(p);
+
+        network.getLatencyTracker().replyReceived(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, c.companyId);
+        this.polls.replyReceived(AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO, c.companyId);
+
+        /* sweeps and polls answer for known companies too, keep their economy, vehicles and shares */
+        Pool pool       = openttd.getPool();
+        Company company = pool.getCompanyPool().get(c.companyId);
 
-        company.name        = p.readString();
-        company.president   = p.readString();
-        company.colour      = Colour.valueOf(p.readUint8());
-        company.passworded  = p.readBool();
-        company.inaugurated = p.readUint32();
-        company.ai          = p.readBool();
+        if (company == null) {
+            company = new Company(c.companyId);
+            pool.getCompanyPool().add(company);
+        }
+
+        company.name        = c.name;
+        company.president   = c.president;
+        company.colour      = Colour.valueOf(c.colour);
+        company.passworded  = c.passworded;
+        company.inaugurated = c.inaugurated;
+        company.ai          = c.ai;
+        company.generation  = this.generation;
 
-        openttd.getPool().getCompanyPool().add(company);
+        this.updatePoolMetrics(pool);
 
-        openttd.onCompanyInfo(company);
+
+        if (this.wants(CompanyInfoEvent.class)) {
+            this.dispatch(new CompanyInfoEvent(openttd, company));
+        }
+
+        this.replay(this.deferred.releaseCompany(company.id));
     }
 
     public synchronized void receiveServerCompanyUpdate (OpenTTD openttd, Packet p) throws IOException
     {
+        ServerCompanyUpdateCodec c = this.serverCompanyUpdate;
+        c.decode(p);
+
         Pool pool     = openttd.getPool();
-        int companyId = p.readUint8();
+        int companyId = c.companyId;
 
         if (pool.getCompanyPool().exists(companyId)) {
             Company company = pool.getCompanyPool().get(companyId);
 
-            company.name        = p.readString();
-            company.president   = p.readString();
-            company.colour      = Colour.valueOf(p.readUint8());
-            company.passworded  = p.readBool();
-            company.bankruptcy  = p.readUint8();
+            company.name        = c.name;
+            company.president   = c.president;
+            company.colour      = Colour.valueOf(c.colour);
+            company.passworded  = c.passworded;
+            company.bankruptcy  = c.bankruptcy;
 
             for (short i = 0; i < 4; i++) {
-                company.shares[i] = p.readUint8();
+                company.shares[i] = c.shares[i];
             }
 
-            openttd.onCompanyUpdate(company);
+            if (this.wants(CompanyUpdateEvent.class)) {
+                this.dispatch(new CompanyUpdateEvent(openttd, company));
+            }
             return;
         }
 
         /* we know nothing about this ccompany, request an update */
-        pollCompanyInfo(companyId);
+        this.deferCompany(companyId, p);
         Logger.getLogger(Network.class.getName()).log(Level.INFO, "Unknown company update #{0}", companyId);
     }
 
     public synchronized void receiveServerCompanyEconomy (OpenTTD openttd, Packet p) throws IOException
     {
+        ServerCompanyEconomyCodec c = this.serverCompanyEconomy;
+        c.decode(p);
+
         Pool pool     = openttd.getPool();
-        int companyId = p.readUint8();
+        int companyId = c.companyId;
+
+        network.getLatencyTracker().replyReceived(AdminUpdateType.ADMIN_UPDATE_COMPANY_ECONOMY, companyId);
 
         if (pool.getCompanyPool().exists(companyId)) {
             Company company = pool.getCompanyPool().get(companyId);
             Economy tmp_cur_economy = new Economy();
             
             tmp_cur_economy.date   = openttd.getGame().getDate();
-            tmp_cur_economy.money  = p.readUint64().multiply(BigInteger.valueOf(2));
-            tmp_cur_economy.loan   = p.readUint64().multiply(BigInteger.valueOf(2));
-            tmp_cur_economy.income = p.readUint64().multiply(BigInteger.valueOf(2));
+            tmp_cur_economy.money  = BigInteger.valueOf(c.money).multiply(BigInteger.valueOf(2));
+            tmp_cur_economy.loan   = BigInteger.valueOf(c.loan).multiply(BigInteger.valueOf(2));
+            tmp_cur_economy.income = BigInteger.valueOf(c.income).multiply(BigInteger.valueOf(2));
             
             Economy e1 = new Economy();
             e1.date        = tmp_cur_economy.date.previousQuarter();
-            e1.cargo       = p.readUint16();
-            e1.value       = p.readUint64().multiply(BigInteger.valueOf(2));
-            e1.performance = p.readUint16();
+            e1.cargo       = c.cargo1;
+            e1.value       = BigInteger.valueOf(c.value1).multiply(BigInteger.valueOf(2));
+            e1.performance = c.performance1;
             
             Economy e2 = new Economy();
             e2.date        = e1.date.previousQuarter();
-            e2.cargo       = p.readUint16();
-            e2.value       = p.readUint64().multiply(BigInteger.valueOf(2));
-            e2.performance = p.readUint16();
+            e2.cargo       = c.cargo2;
+            e2.value       = BigInteger.valueOf(c.value2).multiply(BigInteger.valueOf(2));
+            e2.performance = c.performance2;
 
             if (company.current_economy.isSameQuarter(e1)) {
                 e1.money  = company.current_economy.money;
@@ -375,107 +1042,144 @@ public class NetworkClient extends Thread
             }
             
             company.current_economy = tmp_cur_economy;
+            network.getMetrics().setCompanyValue(companyId, e1.value.longValue());
             
             /* store e1 and e2 with company economy history */
             
-            openttd.onCompanyEconomy(company);
+            if (this.wants(CompanyEconomyEvent.class)) {
+                this.dispatch(new CompanyEconomyEvent(openttd, company));
+            }
             return;
         }
 
         /* we know nothing about this ccompany, request an update */
-        pollCompanyInfo(companyId);
+        this.deferCompany(companyId, p);
         Logger.getLogger(Network.class.getName()).log(Level.INFO, "Unknown company economy #{0}", companyId);
     }
 
     public synchronized void receiveServerCompanyStats (OpenTTD openttd, Packet p) throws IOException
     {
+        ServerCompanyStatsCodec c = this.serverCompanyStats;
+        c.decode(p);
+
         Pool pool     = openttd.getPool();
-        int companyId = p.readUint8();
+        int companyId = c.companyId;
+
+        network.getLatencyTracker().replyReceived(AdminUpdateType.ADMIN_UPDATE_COMPANY_STATS, companyId);
 
         if (pool.getCompanyPool().exists(companyId)) {
             Company company = pool.getCompanyPool().get(companyId);
 
             for (VehicleType vt : VehicleType.values()) {
-                company.vehicles.put(vt, p.readUint16());
+                company.vehicles.put(vt, c.vehicles[vt.ordinal()]);
+                company.stations.put(vt, c.stations[vt.ordinal()]);
             }
 
-            for (VehicleType vt : VehicleType.values()) {
-                company.stations.put(vt, p.readUint16());
+            network.getMetrics().setCompanyStats(company);
+            if (this.wants(CompanyStatsEvent.class)) {
+                this.dispatch(new CompanyStatsEvent(openttd, company));
             }
-
-            openttd.onCompanyStats(company);
             return;
         }
 
         /* we know nothing about this ccompany, request an update */
-        pollCompanyInfo(companyId);
+        this.deferCompany(companyId, p);
         Logger.getLogger(Network.class.getName()).log(Level.INFO, "Unknown company stats #{0}", companyId);
     }
 
     public synchronized void receiveServerCompanyRemove (OpenTTD openttd, Packet p)
     {
+        this.serverCompanyRemove.decode(p);
+
         Pool pool     = openttd.getPool();
-        int companyId = p.readUint8();
+        int companyId = this.serverCompanyRemove.companyId;
 
-        AdminCompanyRemoveReason crr = AdminCompanyRemoveReason.valueOf(p.readUint8());
+        AdminCompanyRemoveReason crr = AdminCompanyRemoveReason.valueOf(this.serverCompanyRemove.reason);
 
         if (pool.getCompanyPool().exists(companyId)) {
             Company company = pool.getCompanyPool().remove(companyId);
+            this.updatePoolMetrics(pool);
+            network.getMetrics().removeCompany(companyId);
 
-            openttd.onCompanyRemove(company, crr);
+            if (this.wants(CompanyRemoveEvent.class)) {
+                this.dispatch(new CompanyRemoveEvent(openttd, company, crr));
+            }
+            return;
         }
 
         /* we do not seem to have known anything about this company, but as the company got closed down, do nothing. */
         Logger.getLogger(Network.class.getName()).log(Level.INFO, "Unknown company removed #{0}", companyId);
     }
 
-    public synchronized void receiveServerChat (OpenTTD openttd, Packet p)
+    public synchronized void receiveServerChat (OpenTTD openttd, Packet p) throws IOException
     {
+        this.dispatchView(this.chatView, p);
+
+        /* nobody listens, no need to decode anything */
+        if (!this.wants(ChatEvent.class)) {
+            return;
+        }
+
+        ServerChatCodec c = this.serverChat;
+        c.decode(p);
+
         Pool pool            = openttd.getPool();
-        NetworkAction action = NetworkAction.valueOf(p.readUint8());
-        DestType dest        = DestType.valueOf(p.readUint8());
-        long clientId        = p.readUint32();
-        String message       = p.readString();
-        BigInteger data      = p.readUint64();
+        NetworkAction action = NetworkAction.valueOf(c.action);
+        DestType dest        = DestType.valueOf(c.destType);
+        long clientId        = c.clientId;
+        String message       = c.message;
+        BigInteger data      = BigInteger.valueOf(c.data);
 
         if (pool.getClientPool().exists(clientId)) {
             Client client = pool.getClientPool().get(clientId);
 
-            openttd.onChat(action, dest, client, message, data);
+            this.dispatch(new ChatEvent(openttd, action, dest, client, message, data));
             return;
         }
 
-        /* we know nothing of the client who aparently sent this message, just drop it */
+        /* we know nothing of the client who aparently sent this message, request an update */
+        this.deferClient(clientId, p);
     }
 
     public synchronized void receiveServerNewgame (OpenTTD openttd, Packet p)
     {
-        openttd.onNewgame();
+        network.getMetrics().getGameSpeed().reset();
+        if (this.wants(NewgameEvent.class)) {
+            this.dispatch(new NewgameEvent(openttd));
+        }
     }
 
     public synchronized void receiveServerShutdown (OpenTTD openttd, Packet p)
     {
         network.disconnect();
-        openttd.onShutdown();
+        if (this.wants(ShutdownEvent.class)) {
+            this.dispatch(new ShutdownEvent(openttd));
+        }
     }
 
     public synchronized void receiveServerRcon (OpenTTD openttd, Packet p)
     {
+        /* nobody listens, no need to decode anything */
+        if (!this.wants(RconEvent.class)) {
+            return;
+        }
+
         if (this.rconBuffer.isEOR()) {
             this.rconBuffer = new RconBuffer();
         }
 
-        Colour colour  = Colour.valueOf(p.readUint16());
-        String message = p.readString();
+        this.serverRcon.decode(p);
 
-        this.rconBuffer.add(colour, message);
+        this.rconBuffer.add(Colour.valueOf(this.serverRcon.colour), this.serverRcon.message);
     }
 
     public synchronized void receiveServerRconEnd (OpenTTD openttd, Packet p)
     {
         this.rconBuffer.setEOR();
 
-        openttd.onRcon(this.rconBuffer);
+        if (this.wants(RconEvent.class)) {
+            this.dispatch(new RconEvent(openttd, this.rconBuffer));
+        }
         this.rconBuffer = new RconBuffer();
     }
 
@@ -498,58 +1202,85 @@ public class NetworkClient extends Thread
             }
         }
 
-        network.getOpenTTD().onProtocol(protocol);
+        if (this.wants(ProtocolEvent.class)) {
+            this.dispatch(new ProtocolEvent(openttd, protocol));
+        }
     }
 
     public synchronized void receiveServerConsole (OpenTTD openttd, Packet p)
     {
-        String origin  = p.readString();
-        String message = p.readString();
+        this.dispatchView(this.consoleView, p);
 
-        openttd.onConsole(origin, message);
+        /* nobody listens, no need to decode anything */
+        if (!this.wants(ConsoleEvent.class)) {
+            return;
+        }
+
+        this.serverConsole.decode(p);
+
+        this.dispatch(new ConsoleEvent(openttd, this.serverConsole.origin, this.serverConsole.message));
     }
 
     public synchronized void receiveServerCmdNames (OpenTTD openttd, Packet p)
     {
+        network.getLatencyTracker().replyReceived(AdminUpdateType.ADMIN_UPDATE_CMD_NAMES);
+
+        List<DoCommandName> commands = new ArrayList<DoCommandName>();
+
         while(p.readBool()) {
             int cmdId = p.readUint16();
             String cmdName = p.readString();
 
-            new DoCommandName(cmdName, cmdId);
+            commands.add(new DoCommandName(cmdName, cmdId));
         }
+
+        DoCommandNameRegistry registry = network.getCommandNames();
+        if (registry == null) {
+            registry = DoCommandNameRegistry.forRevision(openttd.getGame().getRevision());
+            network.setCommandNames(registry);
+        }
+
+        registry.register(commands.toArray(new DoCommandName[commands.size()]));
     }
 
     public synchronized void receiveServerCmdLogging (OpenTTD openttd, Packet p) throws IOException
     {
+        this.dispatchView(this.cmdLoggingView, p);
+
+        ServerCmdLoggingCodec c = this.serverCmdLogging;
+        c.decodeHead(p);
+
         Pool pool = openttd.getPool();
 
-        long clientId = p.readUint32();
-        int companyId = p.readUint8();
-        int commandId = p.readUint16();
-        long p1       = p.readUint32();
-        long p2       = p.readUint32();
-        long tile     = p.readUint32();
-        String text   = p.readString();
-        long frame    = p.readUint32();
+        long clientId = c.clientId;
+        int companyId = c.companyId;
+        int commandId = c.commandId;
+        long p1       = c.p1;
+        long p2       = c.p2;
 
         Client client = pool.getClientPool().get(clientId);
 
         if (client == null) {
-            this.pollClientInfo(clientId);
+            this.deferClient(clientId, p);
             return;
         }
 
         Company company = pool.getCompanyPool().get(companyId);
 
         if (company == null) {
-            this.pollCompanyInfo(companyId);
+            this.deferCompany(companyId, p);
             return;
         }
 
-        DoCommandName command = DoCommandName.valueOf(commandId);
+        DoCommandNameRegistry registry = network.getCommandNames();
+        DoCommandName command = (registry == null) ? null : registry.get(commandId);
 
         if (command == null) {
-            this.pollCmdNames();
+            /* ask once, the names do not change while the server runs */
+            if (!this.cmdNamesPolled) {
+                this.cmdNamesPolled = true;
+                this.pollCmdNames();
+            }
             return;
         }
 
@@ -557,33 +1288,61 @@ public class NetworkClient extends Thread
             this.handleCmdPause(p1, p2);
         }
 
-        openttd.onCmdLogging(client, company, command, p1, p2, tile, text, frame);
+        /* nobody listens, skip decoding the rest */
+        if (!this.wants(CmdLoggingEvent.class)) {
+            return;
+        }
+
+        c.decodeTail(p);
+
+        this.dispatch(new CmdLoggingEvent(openttd, client, company, command, p1, p2, c.tile, c.text, c.frame));
     }
     
     public synchronized void receiveServerGamescript (OpenTTD openttd, Packet p) throws IOException
     {
-        String json = p.readString();
-        
-        openttd.onGamescript(json);
+        this.dispatchView(this.gamescriptView, p);
+
+        /* nobody listens, no need to decode anything */
+        if (!this.wants(GamescriptEvent.class)) {
+            return;
+        }
+
+        this.serverGamescript.decode(p);
+
+        this.dispatch(new GamescriptEvent(openttd, this.serverGamescript.json));
     }
 
     public synchronized void receiveServerPong (OpenTTD openttd, Packet p) throws IOException
     {
-        long d1 = p.readUint32();
+        this.serverPong.decode(p);
+
+        long d1 = this.serverPong.payload;
+
+        network.getLatencyTracker().pongReceived(d1);
 
-        openttd.onPong(d1);
+        if (this.watchdog.pongReceived(d1)) {
+            return;
+        }
+
+        if (this.sweeping && d1 == this.sweepPayload) {
+            /* our own marker, not of interest to anybody else */
+            this.finishSweep(openttd.getPool());
+            return;
+        }
+
+        if (this.wants(PongEvent.class)) {
+            this.dispatch(new PongEvent(openttd, d1));
+        }
     }
 
 
 
     public synchronized void sendAdminJoin () throws IOException
     {
-        Packet p = new Packet(network.getSocket(), PacketType.ADMIN_PACKET_ADMIN_JOIN);
-        p.writeString(network.getOpenTTD().getPassword());
-        p.writeString(network.getOpenTTD().getBotName());
-        p.writeString(network.getOpenTTD().getBotVersion());
+        OpenTTD openttd = network.getOpenTTD();
+        Packet p = AdminJoinCodec.encode(network.getSocket(), openttd.getPassword(), openttd.getBotName(), openttd.getBotVersion());
 
-        NetworkOutputThread.append(p);
+        this.queue(p);
     }
 
     public synchronized void sendAdminUpdateFrequency (AdminUpdateType type, AdminUpdateFrequency freq) throws IOException, IllegalArgumentException
@@ -591,11 +1350,9 @@ public class NetworkClient extends Thread
         if (!network.getProtocol().isSupported(type, freq))
             throw new IllegalArgumentException("The server does not support " + freq + " for " + type);
 
-        Packet p = new Packet(network.getSocket(), PacketType.ADMIN_PACKET_ADMIN_UPDATE_FREQUENCY);
-        p.writeUint16(type.getValue());
-        p.writeUint16(freq.getValue());
+        Packet p = AdminUpdateFrequencyCodec.encode(network.getSocket(), type.getValue(), freq.getValue());
 
-        NetworkOutputThread.append(p);
+        this.queue(p);
     }
 
     public synchronized void sendAdminPoll (AdminUpdateType type) throws IOException, IllegalArgumentException
@@ -608,58 +1365,68 @@ public class NetworkClient extends Thread
         if (!network.getProtocol().isSupported(type, AdminUpdateFrequency.ADMIN_FREQUENCY_POLL))
             throw new IllegalArgumentException("The server does not support ADMIN_FREQUENCY_POLL for " + type);
 
-        Packet p = new Packet(network.getSocket(), PacketType.ADMIN_PACKET_ADMIN_POLL);
-        p.writeUint8(type.getValue());
-        p.writeUint32(data);
+        Packet p = AdminPollCodec.encode(network.getSocket(), type.getValue(), data);
 
-        NetworkOutputThread.append(p);
+        network.getLatencyTracker().pollSent(type, data);
+        this.queue(p);
     }
 
     public synchronized void sendAdminChat (NetworkAction action, DestType type, long dest, String message, long data) throws IOException
     {
-        Packet p = new Packet(network.getSocket(), PacketType.ADMIN_PACKET_ADMIN_CHAT);
-        p.writeUint8(action.ordinal());
-        p.writeUint8(type.ordinal());
-        p.writeUint32(dest);
-
-        message.trim();
-        if (message.length() >= 900) {
-            return;
-        }
+        message = message.trim();
 
-        p.writeString(message);
-        p.writeUint64(data);
+        /* the server drops messages longer than its chat buffer, send them in parts */
+        for (String part : StringFunc.splitUtf8(message, NETWORK_CHAT_LENGTH - 1)) {
+            Packet p = AdminChatCodec.encode(network.getSocket(), action.ordinal(), type.ordinal(), dest, part, data);
 
-        NetworkOutputThread.append(p);
+            this.queue(p);
+        }
     }
 
     public synchronized void sendAdminQuit () throws IOException
     {
         this.send(PacketType.ADMIN_PACKET_ADMIN_QUIT);
-        network.disconnect();
+        network.close();
     }
 
     public synchronized void sendAdminRcon (String command) throws IOException
     {
-        Packet p = new Packet(network.getSocket(), PacketType.ADMIN_PACKET_ADMIN_RCON);
-        p.writeString(command);
+        sendAdminRcon(command, PacketPriority.forRcon(command));
+    }
+
+    public synchronized void sendAdminRcon (String command, PacketPriority priority) throws IOException
+    {
+        Packet p = AdminRconCodec.encode(network.getSocket(), command);
 
-        NetworkOutputThread.append(p);
+        p.setPriority(priority);
+
+        this.queue(p);
     }
     
     public synchronized void sendAdminGamescript (String json) throws IOException
     {   
-        Packet p = new Packet(network.getSocket(), PacketType.ADMIN_PACKET_ADMIN_GAMESCRIPT);
-        p.writeString(json);
+        Packet p = AdminGamescriptCodec.encode(network.getSocket(), json);
         
-        NetworkOutputThread.append(p);
+        this.queue(p);
     }
 
     public synchronized void sendAdminPing (long d1) throws IOException
     {   
-        Packet p = new Packet(network.getSocket(), PacketType.ADMIN_PACKET_ADMIN_PING);
-        p.writeUint32(d1);
+        sendAdminPing(d1, PacketPriority.CONTROL);
+    }
 
-        NetworkOutputThread.append(p);
+    /**
+     * Send a ping in a given PacketPriority, e.g. to be answered after the packets queued in that class.
+     * @param d1 The payload.
+     * @param priority The PacketPriority to send it with.
+     * @throws IOException
+     */
+    protected synchronized void sendAdminPing (long d1, PacketPriority priority) throws IOException
+    {
+        Packet p = AdminPingCodec.encode(network.getSocket(), d1);
+
+        p.setPriority(priority);
+        network.getLatencyTracker().pingSent(d1);
+        this.queue(p);
     }
 }
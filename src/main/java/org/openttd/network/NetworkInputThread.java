@@ -18,107 +18,101 @@
 
 package org.openttd.network;
 
-import java.util.HashMap;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.net.Socket;
+import java.io.DataInputStream;
 import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Handling of sending packets to an OpenTTD server in a separate thread.
+ * Handling of receiving packets from an OpenTTD server in a separate thread.
+ *
+ * Every connection has its own reader, so an idle or frozen server only
+ * blocks the reads of its own socket. When the PacketRing of a connection is
+ * full its reader waits for the NetworkClient and stops reading, which leaves
+ * the backpressure in the TCP window of that socket alone.
  * @author Nathanael Rebsch
  */
 public class NetworkInputThread implements Runnable
 {
-    private static final NetworkInputThread singleton;
-    private static final HashMap<Socket, BlockingQueue<Packet>> queues;
-
     private final Logger log = LoggerFactory.getLogger(NetworkInputThread.class);
 
-    static {
-        singleton = new NetworkInputThread();
-        queues = new HashMap<Socket, BlockingQueue<Packet>>();
-    }
+    private final Socket socket;
+    private final PacketRing ring;
+    /** Scratch space for the length of the next packet. */
+    private final byte[] header = new byte[2];
 
     /**
-     * Constructor kept private for a good reason.
+     * Constructor kept private, readers are started by register().
      */
-    private NetworkInputThread ()
+    private NetworkInputThread (Socket socket, PacketRing ring)
     {
-        new Thread(this).start();
+        this.socket = socket;
+        this.ring   = ring;
     }
 
     /**
-     * Create a queue if there should not be one already.
-     * @param socket Socket to bind the queue to.
+     * Start reading packets from a Socket, until it gets closed.
+     * @param socket Socket to read from.
+     * @param ring PacketRing received packets are handed to.
      */
-    private static void instanciateQueue (Socket socket)
+    protected static void register (Socket socket, PacketRing ring)
     {
-        if (!queues.containsKey(socket)) {
-            queues.put(socket, new ArrayBlockingQueue<Packet>(100, false));
-        }
+        new Thread(new NetworkInputThread(socket, ring), "NetworkInputThread " + socket.getRemoteSocketAddress()).start();
     }
 
-    /**
-     * Get the queue bound to the given Socket.
-     * @param socket Socket for which a queue should be retrieved.
-     * @return The queue bound to the Socket.
-     */
-    protected static BlockingQueue<Packet> getQueue (Socket socket)
+    private void close ()
     {
-        instanciateQueue(socket);
-        return queues.get(socket);
-    }
-
-    /**
-     * Append a packet to the appropriate queue.
-     * @param p Packet to append to the queue.
-     */
-    protected static void append (Packet p)
-    {
-        getQueue(p.getSocket()).add(p);
-    }
-
-    /**
-     * Get the next packet from the top of the queue.
-     * @param socket Socket of which queue to get the next Packet.
-     * @return Packet from the top of the queue.
-     * @throws InterruptedException
-     */
-    protected static synchronized Packet getNext (Socket socket) throws InterruptedException
-    {
-        return getQueue(socket).take();
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            log.error("Failed closing socket", ex);
+        }
     }
 
     @Override
     public void run ()
     {
-        while (true) {
-            for (Socket socket : queues.keySet()) {
-                try {
-                    if (socket.isClosed()) {
-                        queues.remove(socket);
-                        log.info("Socket closed: {}", socket.getRemoteSocketAddress().toString());
-                        continue;
-                    }
-                    
-                    Packet p = new Packet(socket);
-                    
-                    /* make sure it's not a close packet, in case we need to shutdown the socket */
-                    if (p.getType().isSocketCloseIndicator()) {
-                        socket.close();
-                    }
-                    
-                    append(p);
-                    log.trace("Received Packet {}", p.getType());
-                } catch (IOException ex) {
+        DataInputStream in;
+
+        try {
+            in = new DataInputStream(socket.getInputStream());
+        } catch (IOException ex) {
+            log.error("Failed opening socket stream", ex);
+            close();
+            return;
+        }
+
+        while (!socket.isClosed()) {
+            try {
+                Packet p = new Packet(socket, in, header);
+
+                /* make sure it's not a close packet, in case we need to shutdown the socket */
+                if (p.getType().isSocketCloseIndicator()) {
+                    socket.close();
+                }
+
+                ring.put(p);
+                log.trace("Received Packet {}", p.getType());
+
+                PacketTracer tracer = Network.getPacketTracer();
+                if (tracer != null) {
+                    tracer.onReceive(socket.getRemoteSocketAddress(), p.getType(), p.length(), p.getReadNanos());
+                }
+            } catch (InterruptedException ex) {
+                log.error("Interrupted handing over packet", ex);
+                close();
+            } catch (IOException ex) {
+                /* the stream is out of sync or gone, drop the connection so it can be re-established */
+                if (!socket.isClosed()) {
                     log.error("Failed reading packet", ex);
-                } catch (IndexOutOfBoundsException ex) {
-                    log.error("Packet size > SEND_MTU?", ex);
+                    close();
                 }
+            } catch (IndexOutOfBoundsException ex) {
+                log.error("Packet size > SEND_MTU?", ex);
             }
         }
+
+        log.info("Socket closed: {}", socket.getRemoteSocketAddress());
     }
 }
@@ -18,9 +18,9 @@
 
 package org.openttd.network;
 
-import java.util.HashMap;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.net.Socket;
 import java.io.IOException;
 import org.slf4j.Logger;
@@ -28,18 +28,23 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Handling of sending packets to an OpenTTD server in a separate thread.
+ * The packets of each connection are sent by PacketPriority.
+ * @see OutboundQueue
  * @author Nathanael Rebsch
  */
 public class NetworkOutputThread implements Runnable
 {
     private static final NetworkOutputThread singleton;
-    private static final HashMap<Socket, BlockingQueue<Packet>> queues;
+    private static final ConcurrentHashMap<Socket, OutboundQueue> queues;
+
+    /** One permit per appended packet, so the thread sleeps while all queues are empty. */
+    private static final Semaphore available = new Semaphore(0);
 
     private final Logger log = LoggerFactory.getLogger(NetworkOutputThread.class);
 
     static {
         singleton = new NetworkOutputThread();
-        queues = new HashMap<Socket, BlockingQueue<Packet>>();
+        queues = new ConcurrentHashMap<Socket, OutboundQueue>();
     }
 
     /**
@@ -57,7 +62,7 @@ public class NetworkOutputThread implements Runnable
     private static void instanciateQueue (Socket socket)
     {
         if (!queues.containsKey(socket)) {
-            queues.put(socket, new ArrayBlockingQueue<Packet>(15, false));
+            queues.putIfAbsent(socket, new OutboundQueue());
         }
     }
 
@@ -66,7 +71,7 @@ public class NetworkOutputThread implements Runnable
      * @param socket Socket for which a queue should be retrieved.
      * @return The queue bound to the Socket.
      */
-    private static BlockingQueue<Packet> getQueue (Socket socket)
+    private static OutboundQueue getQueue (Socket socket)
     {
         instanciateQueue(socket);
         return queues.get(socket);
@@ -75,43 +80,65 @@ public class NetworkOutputThread implements Runnable
     /**
      * Append a packet to the appropriate queue.
      * @param p Packet to append to the queue.
+     * @throws IllegalStateException if too many packets of its PacketPriority are waiting.
      */
     protected static void append (Packet p)
     {
         getQueue(p.getSocket()).add(p);
-    }
-
-    /**
-     * Get the next packet from the top of the queue.
-     * @param socket Socket of which queue to get the next Packet.
-     * @return Packet from the top of the queue.
-     * @throws InterruptedException
-     */
-    protected static synchronized Packet getNext (Socket socket) throws InterruptedException
-    {
-        return getQueue(socket).take();
+        available.release();
     }
 
     @Override
     public void run ()
     {
         while (true) {
-            for (BlockingQueue<Packet> q : queues.values()) {
+            boolean ready;
+
+            try {
+                ready = available.tryAcquire(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                log.error(null, ex);
+                continue;
+            }
+
+            for (Socket socket : queues.keySet()) {
+                /* if the socket is closed, remove its queue, a reconnect registers a new one */
+                if (socket.isClosed()) {
+                    OutboundQueue queue = queues.remove(socket);
+
+                    if (queue != null) {
+                        for (Packet p : queue.clear()) {
+                            p.failed(new IOException("Socket closed"));
+                        }
+                    }
+                    continue;
+                }
+
+                Packet p = ready ? queues.get(socket).poll() : null;
+
+                if (p == null) {
+                    continue;
+                }
+
+                /* one packet per permit */
+                ready = false;
+
                 try {
-                    Packet p = q.take();
+                    PacketTracer tracer = Network.getPacketTracer();
 
-                    /* if the socket is closed, remove it from the queue and leave the foreach */
-                    if (p.getSocket().isClosed()) {
-                        queues.remove(p.getSocket());
-                        break;
+                    if (tracer != null) {
+                        long start = System.nanoTime();
+                        p.send();
+                        tracer.onSend(p.getSocket().getRemoteSocketAddress(), p.getType(), p.length(), System.nanoTime() - start);
+                    } else {
+                        p.send();
                     }
 
-                    p.send();
                     log.trace("Sending Packet {}", p.getType());
-                } catch (InterruptedException ex) {
-                    log.error(null, ex);
+                    p.sent();
                 } catch (IOException ex) {
                     log.error(null, ex);
+                    p.failed(ex);
                 }
             }
         }
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outbound packets of a single connection, one FIFO per PacketPriority.
+ *
+ * The highest class with packets waiting is served first. To prevent
+ * starvation, a class that has been passed over STARVATION_LIMIT times in a
+ * row is served next, so every class keeps a share of the connection.
+ */
+public class OutboundQueue
+{
+    /** Maximum number of packets waiting per class. */
+    public static final int CAPACITY = 64;
+
+    /** A class with packets waiting is served after being passed over this often. */
+    public static final int STARVATION_LIMIT = 8;
+
+    private static final PacketPriority[] CLASSES = PacketPriority.values();
+
+    private final List<ArrayDeque<Packet>> queues = new ArrayList<ArrayDeque<Packet>>(CLASSES.length);
+    private final int[] skipped = new int[CLASSES.length];
+
+    protected OutboundQueue ()
+    {
+        for (int i = 0; i < CLASSES.length; i++) {
+            this.queues.add(new ArrayDeque<Packet>());
+        }
+    }
+
+    /**
+     * Append a Packet to the queue of its class.
+     * @param p The Packet.
+     * @throws IllegalStateException if the queue of the class is full.
+     */
+    protected synchronized void add (Packet p)
+    {
+        ArrayDeque<Packet> queue = this.queues.get(p.getPriority().ordinal());
+
+        if (queue.size() >= CAPACITY) {
+            throw new IllegalStateException("Queue full for " + p.getPriority() + " packets");
+        }
+
+        queue.addLast(p);
+    }
+
+    /**
+     * Take the next Packet to send.
+     * @return The Packet, or null if nothing is waiting.
+     */
+    protected synchronized Packet poll ()
+    {
+        int next = -1;
+
+        /* a starved class goes first, then the highest class waiting */
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (!this.queues.get(i).isEmpty() && this.skipped[i] >= STARVATION_LIMIT) {
+                next = i;
+                break;
+            }
+        }
+
+        if (next < 0) {
+            for (int i = 0; i < CLASSES.length; i++) {
+                if (!this.queues.get(i).isEmpty()) {
+                    next = i;
+                    break;
+                }
+            }
+        }
+
+        if (next < 0) {
+            return null;
+        }
+
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (i == next || this.queues.get(i).isEmpty()) {
+                this.skipped[i] = 0;
+            } else {
+                this.skipped[i]++;
+            }
+        }
+
+        return this.queues.get(next).pollFirst();
+    }
+
+    /**
+     * Remove all packets, e.g. once the socket has been closed.
+     * @return The packets that were waiting, highest class first.
+     */
+    protected synchronized List<Packet> clear ()
+    {
+        List<Packet> result = new ArrayList<Packet>();
+
+        for (int i = 0; i < CLASSES.length; i++) {
+            result.addAll(this.queues.get(i));
+            this.queues.get(i).clear();
+            this.skipped[i] = 0;
+        }
+
+        return result;
+    }
+
+    /**
+     * @param priority A priority class.
+     * @return Number of packets of the class waiting.
+     */
+    public synchronized int size (PacketPriority priority)
+    {
+        return this.queues.get(priority.ordinal()).size();
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.openttd.network;
 
+import org.openttd.StringFunc;
 import org.openttd.enums.PacketType;
 import java.io.IOException;
 import java.io.DataInputStream;
@@ -32,11 +33,17 @@ public class Packet
     public static final int SEND_MTU = 1460;
     private static final int POS_PACKET_TYPE = 2;
 
+    /** Index of the first byte after the header. */
+    public static final int POS_PAYLOAD = POS_PACKET_TYPE + 1;
+
     private final Socket socket;
 
     private PacketType type = null;
+    private PacketPriority priority = null;
+    private EncodedPacket encoded = null;
     private byte[] buf;
     private int pos = 0;
+    private long readNanos = 0;
 
     /**
      * Constructor. Creates a new Packet of Type type.
@@ -60,15 +67,25 @@ public class Packet
      */
     public Packet (final Socket socket) throws IOException, IndexOutOfBoundsException, RuntimeException
     {
-        this.socket = socket;
-        this.buf    = new byte[2];
-
-        DataInputStream in = new DataInputStream(socket.getInputStream());
+        this(socket, new DataInputStream(socket.getInputStream()), new byte[2]);
+    }
 
-        in.read(this.buf, 0, 2);
-        int length = this.length();
+    /**
+     * Constructor. Read the next Packet from the stream of the Socket.
+     * The buffer is allocated once, at the length announced in the header.
+     * @param socket The Socket this is related to.
+     * @param in Stream of the Socket.
+     * @param header Scratch space for the two length bytes, reused by the caller.
+     * @throws IOException
+     * @throws IndexOutOfBoundsException
+     * @throws RuntimeException
+     */
+    protected Packet (final Socket socket, DataInputStream in, byte[] header) throws IOException, IndexOutOfBoundsException, RuntimeException
+    {
+        this.socket = socket;
 
-        this.buf = Arrays.copyOf(this.buf, length);
+        in.readFully(header, 0, 2);
+        int length = (header[0] & 0xFF) + ((header[1] & 0xFF) << 8);
 
         if (socket.isClosed()) {
             throw new RuntimeException("Socket closed");
@@ -82,15 +99,77 @@ public class Packet
             throw new SocketException("Empty packet received");
         }
 
-        in.readFully(this.buf, 2, this.length() - 2);
+        this.buf    = new byte[length];
+        this.buf[0] = header[0];
+        this.buf[1] = header[1];
+
+        if (Network.getPacketTracer() != null) {
+            long start = System.nanoTime();
+            in.readFully(this.buf, 2, length - 2);
+            this.readNanos = System.nanoTime() - start;
+        } else {
+            in.readFully(this.buf, 2, length - 2);
+        }
+
         this.pos = POS_PACKET_TYPE + 1;
     }
 
+    /**
+     * Constructor. Creates a Packet sharing the buffer of an EncodedPacket, to be sent as is.
+     * @param socket The Socket to send it to.
+     * @param encoded The encoded packet, its buffer is never written to.
+     */
+    protected Packet (final Socket socket, EncodedPacket encoded)
+    {
+        this.socket  = socket;
+        this.encoded = encoded;
+        this.buf     = encoded.buffer();
+        this.pos     = encoded.size();
+        this.type    = encoded.getType();
+    }
+
+    /**
+     * Constructor. Creates a detached copy of the given Packet.
+     * @param p Packet to copy.
+     */
+    private Packet (Packet p)
+    {
+        this.socket = p.socket;
+        this.type     = p.type;
+        this.priority = p.priority;
+        this.buf    = Arrays.copyOf(p.buf, p.buf.length);
+        this.pos    = p.pos;
+    }
+
+    /**
+     * @return A copy of this Packet with its own buffer.
+     */
+    public Packet copy ()
+    {
+        return new Packet(this);
+    }
+
+    /**
+     * Move the read position back to the start of the payload, to decode the Packet again.
+     */
+    protected void rewind ()
+    {
+        this.pos = POS_PAYLOAD;
+    }
+
     protected final Socket getSocket ()
     {
         return this.socket;
     }
 
+    /**
+     * @return Time it took to read the body of this Packet, only measured while tracing.
+     */
+    protected final long getReadNanos ()
+    {
+        return this.readNanos;
+    }
+
     public void append (byte[] buf)
     {
         System.arraycopy(buf, 0, this.buf, this.buf.length, buf.length);
@@ -107,15 +186,107 @@ public class Packet
         this.buf[this.pos++] = (byte) (b ? 1 : 0);
     }
 
-    public void writeString (String s) throws IOException
+    /**
+     * Write a String encoded in UTF-8, followed by a NUL.
+     * @param s The String to write.
+     * @throws IOException
+     * @throws IndexOutOfBoundsException if the String does not fit into the Packet.
+     * @see #fits(String)
+     */
+    public void writeString (String s) throws IOException, IndexOutOfBoundsException
     {
-        byte b[] = s.getBytes();
+        int len = s.length();
+        int i   = 0;
+        int p   = this.pos;
+
+        /* every char takes at least one byte, plus the NUL */
+        if (p + len + 1 > this.buf.length) {
+            throw this.overflow(s);
+        }
+
+        /* ASCII fast path */
+        while (i < len) {
+            char c = s.charAt(i);
+
+            if (c >= 0x80) {
+                break;
+            }
+
+            this.buf[p++] = (byte) c;
+            i++;
+        }
+
+        if (i < len) {
+            if (this.pos + StringFunc.utf8Length(s) + 1 > this.buf.length) {
+                throw this.overflow(s);
+            }
+
+            p = this.encodeUtf8(s, i, p);
+        }
+
+        this.buf[p++] = '\0';
+        this.pos = p;
+    }
 
-        for (int i = 0; i < b.length; i++) {
-            this.buf[this.pos++] = b[i];
+    /**
+     * Encode the chars of s from index i on into the buffer, starting at p.
+     * The caller has made sure everything fits.
+     * @return Position after the last byte written.
+     */
+    private int encodeUtf8 (String s, int i, int p)
+    {
+        byte[] b = this.buf;
+        int len  = s.length();
+
+        for (; i < len; i++) {
+            char c = s.charAt(i);
+
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+
+                b[p++] = (byte) (0xF0 | (cp >> 18));
+                b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                /* unpaired surrogate, not representable in UTF-8 */
+                b[p++] = (byte) '?';
+            } else {
+                b[p++] = (byte) (0xE0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            }
         }
 
-        this.buf[this.pos++] = '\0';
+        return p;
+    }
+
+    private IndexOutOfBoundsException overflow (String s)
+    {
+        return new IndexOutOfBoundsException("String of " + StringFunc.utf8Length(s) + " bytes does not fit into " + this.getType() + ", " + this.remaining() + " bytes left");
+    }
+
+    /**
+     * @return Number of bytes that can still be written to this Packet.
+     */
+    public int remaining ()
+    {
+        return this.buf.length - this.pos;
+    }
+
+    /**
+     * Check if a String can still be written to this Packet.
+     * @param s The String to write.
+     * @return true if writeString(s) will succeed.
+     */
+    public boolean fits (String s)
+    {
+        return StringFunc.utf8Length(s) + 1 <= this.remaining();
     }
 
     public void writeUint8 (short n)
@@ -182,12 +353,21 @@ public class Packet
         long n = this.buf[this.pos++] & 0xFF;
         n += (this.buf[this.pos++] & 0xFF) << 8;
         n += (this.buf[this.pos++] & 0xFF) << 16;
-        n += (this.buf[this.pos++] & 0xFF) << 24;
+        n += (long) (this.buf[this.pos++] & 0xFF) << 24;
 
         return n;
     }
 
     public BigInteger readUint64 ()
+    {
+        return BigInteger.valueOf(this.readInt64());
+    }
+
+    /**
+     * Read a uint64 without creating a BigInteger.
+     * @return The uint64 as (possibly negative) long.
+     */
+    public long readInt64 ()
     {
         long l = 0;
         l += (long)(this.buf[this.pos++] & 0xFF);
@@ -199,27 +379,153 @@ public class Packet
         l += (long)(this.buf[this.pos++] & 0xFF) << 48;
         l += (long)(this.buf[this.pos++] & 0xFF) << 56;
 
-        BigInteger b = BigInteger.valueOf(l);
-        
-        return b;
+        return l;
+    }
+
+    /**
+     * Make sure the Packet holds at least n more bytes to be read.
+     * @param n Number of bytes about to be read.
+     * @throws IndexOutOfBoundsException if the Packet is too short.
+     */
+    public void ensureReadable (int n) throws IndexOutOfBoundsException
+    {
+        if (this.pos + n > this.length()) {
+            throw new IndexOutOfBoundsException("Packet " + this.getType() + " too short, " + n + " bytes expected at " + this.pos + " of " + this.length());
+        }
     }
 
     public String readString ()
     {
-        String out = "";
-        int startIdx = this.pos;
+        int start = this.pos;
+        int end   = this.getStringEnd(start);
 
-        while (this.buf[this.pos++] != (byte) '\0');
+        this.pos = end + 1;
 
-        int endIdx = this.pos - startIdx - 1;
+        return this.getString(start, end);
+    }
+
+    /**
+     * Decode the bytes from start to end, through the StringCache if one is installed.
+     * @param start Index of the first byte.
+     * @param end Index after the last byte.
+     * @return The decoded String.
+     */
+    public String getString (int start, int end)
+    {
+        StringCache cache = Network.getStringCache();
+
+        return (cache != null) ? cache.get(this.buf, start, end) : decodeString(this.buf, start, end);
+    }
+
+    /**
+     * Decode the UTF-8 bytes of b from start to end, ASCII without going through a decoder.
+     * @param b The buffer.
+     * @param start Index of the first byte.
+     * @param end Index after the last byte.
+     * @return The decoded String.
+     */
+    @SuppressWarnings("deprecation")
+    protected static String decodeString (byte[] b, int start, int end)
+    {
+        for (int i = start; i < end; i++) {
+            if (b[i] < 0) {
+                try {
+                    return new String(b, start, end - start, "UTF-8");
+                } catch (UnsupportedEncodingException ex) {
+                    /* as "UTF-8" is a supported encoding, we will ignore this part! */
+                    return "";
+                }
+            }
+        }
+
+        /* plain ASCII, the high byte of every char is 0 */
+        return new String(b, 0, start, end - start);
+    }
+
+    /*
+     * Absolute getters, reading at the given index without moving the read position.
+     * Used by the flyweight views to decode fields on demand.
+     */
+
+    public int getUint8 (int index)
+    {
+        return this.buf[index] & 0xFF;
+    }
+
+    public int getUint16 (int index)
+    {
+        return (this.buf[index] & 0xFF) + ((this.buf[index + 1] & 0xFF) << 8);
+    }
+
+    public long getUint32 (int index)
+    {
+        return (this.getUint16(index) & 0xFFFFL) + ((long) this.getUint16(index + 2) << 16);
+    }
+
+    /**
+     * @param index Index of the first byte.
+     * @return The uint64 as (possibly negative) long, without creating a BigInteger.
+     */
+    public long getInt64 (int index)
+    {
+        return (this.getUint32(index) & 0xFFFFFFFFL) + (this.getUint32(index + 4) << 32);
+    }
+
+    /**
+     * Find the terminating NUL of the string starting at index.
+     * @param index Index of the first byte of the string.
+     * @return Index of the NUL byte.
+     * @throws IndexOutOfBoundsException if the string is not terminated within the packet.
+     */
+    public int getStringEnd (int index) throws IndexOutOfBoundsException
+    {
+        int end = index;
+
+        while (end < this.buf.length && this.buf[end] != (byte) '\0') {
+            end++;
+        }
+
+        if (end >= this.buf.length) {
+            throw new IndexOutOfBoundsException("Packet " + this.getType() + " too short, string at " + index + " not terminated within " + this.buf.length + " bytes");
+        }
+
+        return end;
+    }
 
-        try {
-            out = new String(this.buf, startIdx, endIdx, "UTF-8");
-        } catch (UnsupportedEncodingException ex) {
-            /* as "UTF-8" is a supported encoding, we will ignore this part! */
+    /**
+     * Decode the string starting at index.
+     * @param index Index of the first byte of the string.
+     * @return The decoded string.
+     */
+    public String getString (int index)
+    {
+        return this.getString(index, this.getStringEnd(index));
+    }
+
+    /**
+     * Compare the string starting at index with s, without decoding it.
+     * @param index Index of the first byte of the string.
+     * @param s String to compare with.
+     * @return true if both strings are equal.
+     */
+    public boolean stringEquals (int index, String s)
+    {
+        int len = s.length();
+
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+
+            if (c >= 0x80) {
+                /* non ASCII, let the decoder sort it out */
+                return s.equals(this.getString(index));
+            }
+
+            if (this.buf[index + i] != (byte) c) {
+                return false;
+            }
         }
 
-        return out;
+        return this.buf[index + len] == (byte) '\0';
     }
 
     public PacketType getType () throws ArrayIndexOutOfBoundsException
@@ -231,12 +537,65 @@ public class Packet
         return this.type;
     }
 
+    /**
+     * @return The PacketPriority this Packet is sent with, by default the one of its PacketType.
+     */
+    public PacketPriority getPriority ()
+    {
+        if (this.priority == null) {
+            this.priority = PacketPriority.forType(this.getType());
+        }
+
+        return this.priority;
+    }
+
+    protected void setPriority (PacketPriority priority)
+    {
+        this.priority = priority;
+    }
+
     public void send () throws IOException
     {
-        this.buf[0] = (byte) this.pos;
-        this.buf[1] = (byte) (this.pos >> 8);
+        /* the header of a shared buffer has been written by seal() */
+        if (this.encoded == null) {
+            this.buf[0] = (byte) this.pos;
+            this.buf[1] = (byte) (this.pos >> 8);
+        }
+
+        this.socket.getOutputStream().write(this.buf, 0, this.pos);
+    }
+
+    /**
+     * Called by the NetworkOutputThread once the Packet has been written to its Socket.
+     */
+    protected void sent () {}
+
+    /**
+     * Called by the NetworkOutputThread if the Packet could not be written.
+     * @param ex Why it failed.
+     */
+    protected void failed (IOException ex) {}
+
+    /**
+     * Encode this Packet for sending to any number of sockets.
+     * @return An immutable copy of the Packet as written so far.
+     */
+    public EncodedPacket seal ()
+    {
+        byte[] b = Arrays.copyOf(this.buf, this.pos);
+
+        b[0] = (byte) this.pos;
+        b[1] = (byte) (this.pos >> 8);
 
-        this.socket.getOutputStream().write(Arrays.copyOf(this.buf, this.pos));
+        return new EncodedPacket(this.getType(), b);
+    }
+
+    /**
+     * @return Number of bytes written to (or read from) this Packet so far, including the header.
+     */
+    public int size ()
+    {
+        return this.pos;
     }
 
     public final int length ()
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import org.openttd.enums.PacketType;
+
+/**
+ * Priority class of an outbound Packet, highest first.
+ *
+ * The NetworkOutputThread sends the packets of a connection by class, so a
+ * ping or a kick does not wait for a long announcement or a batch of polls.
+ * @see OutboundQueue
+ */
+public enum PacketPriority
+{
+    /** Joining, quitting, update frequencies and pings. */
+    CONTROL,
+
+    /** Remote console commands that act on players, e.g. kick or ban. */
+    MODERATION,
+
+    /** Chat, other remote console commands and GameScript messages. */
+    INTERACTIVE,
+
+    /** Polls. */
+    BULK;
+
+    /** Console commands sent with MODERATION priority. */
+    private static final Set<String> MODERATION_COMMANDS = new HashSet<String>(Arrays.asList(
+            "kick", "ban", "unban", "pause", "unpause", "move", "reset_company"));
+
+    /**
+     * @param type The PacketType of an outbound Packet.
+     * @return The default priority for the PacketType.
+     */
+    public static PacketPriority forType (PacketType type)
+    {
+        switch (type) {
+            case ADMIN_PACKET_ADMIN_JOIN:
+            case ADMIN_PACKET_ADMIN_QUIT:
+            case ADMIN_PACKET_ADMIN_UPDATE_FREQUENCY:
+            case ADMIN_PACKET_ADMIN_PING:
+                return CONTROL;
+
+            case ADMIN_PACKET_ADMIN_POLL:
+                return BULK;
+
+            default:
+                return INTERACTIVE;
+        }
+    }
+
+    /**
+     * @param command A remote console command.
+     * @return MODERATION for commands acting on players, INTERACTIVE otherwise.
+     */
+    public static PacketPriority forRcon (String command)
+    {
+        String name = command.trim().split("\\s+", 2)[0].toLowerCase(Locale.ENGLISH);
+
+        return MODERATION_COMMANDS.contains(name) ? MODERATION : INTERACTIVE;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single-producer/single-consumer ring buffer handing Packets
+ * from the NetworkInputThread to the NetworkClient of a connection.
+ *
+ * Neither side takes a lock. When the ring is full the producer either waits
+ * for the consumer (put) or gets refused (offer), when it is empty the
+ * consumer waits for the producer. How both sides wait is configured with a
+ * WaitStrategy.
+ */
+public class PacketRing
+{
+    public enum WaitStrategy
+    {
+        /** Spin on the CPU, lowest latency, needs a spare core per waiting thread. */
+        BUSY_SPIN,
+        /** Spin, but yield the CPU to other threads on every iteration. */
+        YIELD,
+        /** Park the thread until it gets woken up by the other side. */
+        PARK
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** Upper bound for a single park, in case a wake up gets lost. */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Packet[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    /** Sequence of the next slot to read, only written by the consumer. */
+    private final AtomicLong head = new AtomicLong(0);
+    /** Sequence of the next slot to write, only written by the producer. */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    private volatile Thread waitingConsumer = null;
+    private volatile Thread waitingProducer = null;
+
+    public PacketRing ()
+    {
+        this(DEFAULT_CAPACITY, WaitStrategy.PARK);
+    }
+
+    /**
+     * Constructor.
+     * @param capacity Minimum number of Packets the ring can hold, rounded up to a power of two.
+     * @param waitStrategy How to wait for the other side.
+     */
+    public PacketRing (int capacity, WaitStrategy waitStrategy)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        int size = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+
+        this.slots        = new Packet[size];
+        this.mask         = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int capacity ()
+    {
+        return slots.length;
+    }
+
+    public int size ()
+    {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty ()
+    {
+        return tail.get() == head.get();
+    }
+
+    public WaitStrategy getWaitStrategy ()
+    {
+        return waitStrategy;
+    }
+
+    /**
+     * Append a Packet if there is room. Producer side only.
+     * @param p Packet to append.
+     * @return false if the ring is full.
+     */
+    public boolean offer (Packet p)
+    {
+        long t = tail.get();
+
+        if (t - head.get() >= slots.length) {
+            return false;
+        }
+
+        slots[(int) t & mask] = p;
+        tail.set(t + 1);
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Append a Packet, waiting for the consumer while the ring is full. Producer side only.
+     * @param p Packet to append.
+     * @throws InterruptedException
+     */
+    public void put (Packet p) throws InterruptedException
+    {
+        while (!offer(p)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (waitStrategy == WaitStrategy.PARK) {
+                waitingProducer = Thread.currentThread();
+
+                /* check again, the consumer might have missed us */
+                if (size() >= slots.length) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+
+                waitingProducer = null;
+            } else if (waitStrategy == WaitStrategy.YIELD) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Move all available Packets, up to the size of the batch, into the batch. Consumer side only.
+     * @param batch Array to fill, starting at index 0.
+     * @return The number of Packets moved, 0 if the ring is empty.
+     */
+    public int drainTo (Packet[] batch)
+    {
+        long h = head.get();
+        int n = (int) Math.min(tail.get() - h, batch.length);
+
+        for (int i = 0; i < n; i++) {
+            int index = (int) (h + i) & mask;
+
+            batch[i] = slots[index];
+            slots[index] = null;
+        }
+
+        if (n > 0) {
+            head.set(h + n);
+
+            Thread producer = waitingProducer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Move available Packets into the batch, waiting for at least one. Consumer side only.
+     * @param batch Array to fill, starting at index 0.
+     * @param timeout How long to wait at most.
+     * @param unit Unit of the timeout.
+     * @return The number of Packets moved, 0 if the timeout elapsed.
+     * @throws InterruptedException
+     */
+    public int drainTo (Packet[] batch, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int n;
+
+        while ((n = drainTo(batch)) == 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                return 0;
+            }
+
+            if (waitStrategy == WaitStrategy.PARK) {
+                waitingConsumer = Thread.currentThread();
+
+                /* check again, the producer might have missed us */
+                if (isEmpty()) {
+                    LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+                }
+
+                waitingConsumer = null;
+            } else if (waitStrategy == WaitStrategy.YIELD) {
+                Thread.yield();
+            }
+        }
+
+        return n;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.net.SocketAddress;
+import org.openttd.enums.PacketType;
+
+/**
+ * Tracing hooks for the packet pipeline.
+ *
+ * Extend this Class and override the methods you wish to make use of, then
+ * install it with Network.setPacketTracer(). A typical implementation commits
+ * a JDK Flight Recorder event per call, so admin traffic can be correlated with
+ * GC pauses and lock contention. While no tracer is installed the pipeline does
+ * not take any timestamps.
+ *
+ * The methods are called from the network threads and should return quickly.
+ */
+public abstract class PacketTracer
+{
+    /**
+     * A packet has been read from the socket by the NetworkInputThread.
+     * @param connection Remote address of the server.
+     * @param type Type of the packet.
+     * @param size Size of the packet in bytes, including the header.
+     * @param nanos Time spent reading the packet body after its header arrived.
+     */
+    public void onReceive (SocketAddress connection, PacketType type, int size, long nanos) {}
+
+    /**
+     * A packet has been decoded and handed to the OpenTTD callbacks by the NetworkClient.
+     * @param connection Remote address of the server.
+     * @param type Type of the packet.
+     * @param size Size of the packet in bytes, including the header.
+     * @param nanos Time spent in delegatePacket, decoding and callbacks included.
+     */
+    public void onDispatch (SocketAddress connection, PacketType type, int size, long nanos) {}
+
+    /**
+     * Share of onDispatch() spent decoding the packet and updating the pools.
+     * @param connection Remote address of the server.
+     * @param type Type of the packet.
+     * @param size Size of the packet in bytes, including the header.
+     * @param nanos Time spent in delegatePacket, excluding callbacks.
+     */
+    public void onDecode (SocketAddress connection, PacketType type, int size, long nanos) {}
+
+    /**
+     * Share of onDispatch() spent in the OpenTTD callbacks and synchronous EventBus listeners.
+     * @param connection Remote address of the server.
+     * @param type Type of the packet.
+     * @param size Size of the packet in bytes, including the header.
+     * @param nanos Time spent in callbacks.
+     */
+    public void onCallback (SocketAddress connection, PacketType type, int size, long nanos) {}
+
+    /**
+     * A packet has been written to the socket by the NetworkOutputThread.
+     * @param connection Remote address of the server.
+     * @param type Type of the packet.
+     * @param size Size of the packet in bytes, including the header.
+     * @param nanos Time spent writing the packet.
+     */
+    public void onSend (SocketAddress connection, PacketType type, int size, long nanos) {}
+}
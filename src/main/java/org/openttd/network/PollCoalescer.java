@@ -0,0 +1,192 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import org.openttd.enums.AdminUpdateType;
+
+/**
+ * Keeps track of the client and company polls in flight.
+ *
+ * A poll for an id that has been polled already is suppressed until the reply
+ * arrives or the poll times out. Polls requested while handling a batch of
+ * packets are sent together at the end of the batch, as a single poll for all
+ * ids if that is cheaper than polling each id.
+ *
+ * Requests and flushes come from the NetworkClient thread, single polls also
+ * from user threads and the PollScheduler, so all methods synchronise.
+ */
+public class PollCoalescer
+{
+    /** Polls not answered within this time may be sent again. */
+    public static final long TIMEOUT_NANOS = 10L * 1000 * 1000 * 1000;
+
+    /** From this many ids on, a single poll for all ids is sent regardless of the pool size. */
+    public static final int COLLAPSE_THRESHOLD = 8;
+
+    private final EnumMap<AdminUpdateType, HashMap<Long, Long>> outstanding = new EnumMap<AdminUpdateType, HashMap<Long, Long>>(AdminUpdateType.class);
+    private final EnumMap<AdminUpdateType, LinkedHashSet<Long>> pending = new EnumMap<AdminUpdateType, LinkedHashSet<Long>>(AdminUpdateType.class);
+
+    protected PollCoalescer ()
+    {
+        for (AdminUpdateType type : AdminUpdateType.values()) {
+            outstanding.put(type, new HashMap<Long, Long>());
+            pending.put(type, new LinkedHashSet<Long>());
+        }
+    }
+
+    /**
+     * Request a poll to be sent with the next flush.
+     * @param type The AdminUpdateType to poll.
+     * @param id The client or company id to poll.
+     * @return false if the id has been polled already and the request is suppressed.
+     */
+    protected synchronized boolean request (AdminUpdateType type, long id)
+    {
+        return !isOutstanding(type, id) && pending.get(type).add(id);
+    }
+
+    /**
+     * A poll for a single id is about to be sent right away.
+     * @param type The AdminUpdateType to poll.
+     * @param id The client or company id to poll.
+     * @return false if the id has been polled already and the poll should be suppressed.
+     */
+    protected synchronized boolean send (AdminUpdateType type, long id)
+    {
+        if (isOutstanding(type, id)) {
+            return false;
+        }
+
+        outstanding.get(type).put(id, System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Take the requested polls of a type, they are considered sent.
+     * @param type The AdminUpdateType to flush.
+     * @return The requested ids, in order of request.
+     */
+    protected synchronized long[] flush (AdminUpdateType type)
+    {
+        LinkedHashSet<Long> ids = pending.get(type);
+
+        if (ids.isEmpty()) {
+            return new long[0];
+        }
+
+        HashMap<Long, Long> sent = outstanding.get(type);
+        long now = System.nanoTime();
+
+        /* ids that left before the reply was sent are never answered */
+        expire(sent);
+
+        long[] result = new long[ids.size()];
+        int i = 0;
+
+        for (Long id : ids) {
+            sent.put(id, now);
+            result[i++] = id;
+        }
+
+        ids.clear();
+        return result;
+    }
+
+    /**
+     * Polls taken by flush() could not be sent, request them again.
+     * @param type The AdminUpdateType flushed.
+     * @param ids The ids returned by flush().
+     */
+    protected synchronized void retry (AdminUpdateType type, long[] ids)
+    {
+        HashMap<Long, Long> sent = outstanding.get(type);
+
+        for (long id : ids) {
+            sent.remove(id);
+            pending.get(type).add(id);
+        }
+    }
+
+    /**
+     * Check if polling some ids one by one is more expensive than polling all of them.
+     * Each single poll costs a packet in both directions, a poll for all ids
+     * costs one packet per known id.
+     * @param requested Number of ids to poll.
+     * @param known Number of ids in the pool.
+     * @return true if a single poll for all ids should be sent instead.
+     */
+    protected static boolean collapse (int requested, int known)
+    {
+        return requested > 1 && (requested >= COLLAPSE_THRESHOLD || 2 * requested >= known);
+    }
+
+    /**
+     * A reply to a poll (or an automatic update) has arrived.
+     * @param type The AdminUpdateType of the reply.
+     * @param id The client or company id of the reply.
+     */
+    protected synchronized void replyReceived (AdminUpdateType type, long id)
+    {
+        outstanding.get(type).remove(id);
+    }
+
+    /**
+     * Forget all polls, e.g. after a reconnect.
+     */
+    protected synchronized void clear ()
+    {
+        for (AdminUpdateType type : AdminUpdateType.values()) {
+            outstanding.get(type).clear();
+            pending.get(type).clear();
+        }
+    }
+
+    private boolean isOutstanding (AdminUpdateType type, long id)
+    {
+        HashMap<Long, Long> sent = outstanding.get(type);
+        Long since = sent.get(id);
+
+        if (since == null) {
+            return false;
+        }
+
+        if (System.nanoTime() - since > TIMEOUT_NANOS) {
+            expire(sent);
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void expire (HashMap<Long, Long> sent)
+    {
+        long now = System.nanoTime();
+
+        for (Iterator<Map.Entry<Long, Long>> it = sent.entrySet().iterator(); it.hasNext();) {
+            if (now - it.next().getValue() > TIMEOUT_NANOS) {
+                it.remove();
+            }
+        }
+    }
+}
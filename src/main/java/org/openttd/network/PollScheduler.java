@@ -0,0 +1,369 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openttd.enums.AdminUpdateFrequency;
+import org.openttd.enums.AdminUpdateType;
+import org.openttd.metrics.GameSpeedMonitor;
+import org.openttd.metrics.ServerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic polls of all connections, driven by a single thread.
+ *
+ * The first poll of a connection is due at a random point within its interval,
+ * later ones are jittered, so connections started together do not stay in
+ * step. Polls due at the same time are spread out by a minimum spacing.
+ *
+ * The interval of a connection is stretched while its game is paused or runs
+ * slow, and while its polls take long to be answered. Where the server offers
+ * a periodic or automatic update frequency that is at least as frequent as
+ * the requested interval, it is registered instead of polling. A frequency
+ * registered already is kept, if it is less frequent it is polled in between.
+ * @see Network#schedulePoll(AdminUpdateType, long, TimeUnit)
+ */
+public class PollScheduler implements Runnable
+{
+    /** The AdminUpdateTypes that can be scheduled. */
+    public static final EnumSet<AdminUpdateType> POLLABLE = EnumSet.of(
+            AdminUpdateType.ADMIN_UPDATE_DATE,
+            AdminUpdateType.ADMIN_UPDATE_CLIENT_INFO,
+            AdminUpdateType.ADMIN_UPDATE_COMPANY_INFO,
+            AdminUpdateType.ADMIN_UPDATE_COMPANY_ECONOMY,
+            AdminUpdateType.ADMIN_UPDATE_COMPANY_STATS);
+
+    /** Intervals are varied by up to this fraction either way. */
+    public static final double JITTER = 0.1;
+
+    /** Intervals are stretched by at most this factor. */
+    public static final double MAX_STRETCH = 8;
+
+    /** Stretch factor while the game is paused. */
+    private static final double PAUSED_STRETCH = 4;
+
+    /** Polls should not take longer than this fraction of the interval to be answered. */
+    private static final double LATENCY_SHARE = 0.05;
+
+    /* periodic frequencies, longest first, with their period in game days */
+    private static final AdminUpdateFrequency[] PERIODIC = {
+        AdminUpdateFrequency.ADMIN_FREQUENCY_ANUALLY,
+        AdminUpdateFrequency.ADMIN_FREQUENCY_QUARTERLY,
+        AdminUpdateFrequency.ADMIN_FREQUENCY_MONTHLY,
+        AdminUpdateFrequency.ADMIN_FREQUENCY_WEEKLY,
+        AdminUpdateFrequency.ADMIN_FREQUENCY_DAILY,
+    };
+    private static final int[] PERIODIC_DAYS = {365, 91, 30, 7, 1};
+
+    private static final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+    private static final Random random = new Random();
+    private static volatile long spacing = TimeUnit.MILLISECONDS.toNanos(5);
+    private static Thread thread = null;
+
+    /** The task being fired, it is outside the queue meanwhile. */
+    private static Task running = null;
+
+    private final Logger log = LoggerFactory.getLogger(PollScheduler.class);
+
+    private static class Task implements Comparable<Task>
+    {
+        final Network network;
+        final AdminUpdateType type;
+        final long interval;
+        long due;
+        boolean cancelled = false;
+
+        Task (Network network, AdminUpdateType type, long interval, long due)
+        {
+            this.network  = network;
+            this.type     = type;
+            this.interval = interval;
+            this.due      = due;
+        }
+
+        @Override
+        public int compareTo (Task o)
+        {
+            long d = this.due - o.due;
+            return (d < 0) ? -1 : ((d == 0) ? 0 : 1);
+        }
+    }
+
+    /**
+     * Constructor kept private, there is only one scheduler thread.
+     */
+    private PollScheduler () {}
+
+    /**
+     * Set the minimum time between two polls of any connections.
+     * @param time The minimum spacing.
+     * @param unit Unit of the spacing.
+     */
+    public static void setSpacing (long time, TimeUnit unit)
+    {
+        spacing = unit.toNanos(time);
+    }
+
+    /**
+     * Poll a connection periodically, replacing an earlier schedule of the same type.
+     * @param network The connection to poll.
+     * @param type The AdminUpdateType to poll, one of POLLABLE.
+     * @param interval Nominal time between two polls in nanoseconds.
+     */
+    protected static void schedule (Network network, AdminUpdateType type, long interval)
+    {
+        if (!POLLABLE.contains(type)) {
+            throw new IllegalArgumentException(type + " can not be polled periodically");
+        }
+
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+
+        synchronized (tasks) {
+            cancel(network, type);
+
+            long first = (long) (random.nextDouble() * interval);
+            tasks.add(new Task(network, type, interval, System.nanoTime() + first));
+
+            if (thread == null) {
+                thread = new Thread(new PollScheduler(), "joan-poll-scheduler");
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            tasks.notifyAll();
+        }
+    }
+
+    /**
+     * Stop polling a connection for an AdminUpdateType.
+     * @param network The connection.
+     * @param type The AdminUpdateType, or null for all types.
+     */
+    protected static void cancel (Network network, AdminUpdateType type)
+    {
+        synchronized (tasks) {
+            for (Iterator<Task> it = tasks.iterator(); it.hasNext();) {
+                Task task = it.next();
+
+                if (task.network == network && (type == null || task.type == type)) {
+                    it.remove();
+                }
+            }
+
+            if (running != null && running.network == network && (type == null || running.type == type)) {
+                running.cancelled = true;
+            }
+        }
+    }
+
+    @Override
+    public void run ()
+    {
+        long last = System.nanoTime() - spacing;
+
+        while (true) {
+            Task task;
+
+            try {
+                task = take(last + spacing);
+            } catch (InterruptedException ex) {
+                log.error(null, ex);
+                continue;
+            }
+
+            last = System.nanoTime();
+
+            double stretch = 1;
+
+            try {
+                stretch = fire(task);
+            } catch (IOException ex) {
+                log.warn("Failed polling " + task.type + " of " + task.network.getServerName(), ex);
+            } catch (RuntimeException ex) {
+                /* e.g. a full outbound queue, one connection must not stop the others */
+                log.warn("Failed polling " + task.type + " of " + task.network.getServerName(), ex);
+            }
+
+            double jitter = 1 + JITTER * (2 * random.nextDouble() - 1);
+            task.due = System.nanoTime() + (long) (task.interval * stretch * jitter);
+
+            synchronized (tasks) {
+                running = null;
+
+                if (!task.cancelled && !task.network.isClosed()) {
+                    tasks.add(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the next task to become due.
+     * @param notBefore Do not return before this time, to keep the spacing.
+     * @return The task, removed from the queue.
+     * @throws InterruptedException
+     */
+    private static Task take (long notBefore) throws InterruptedException
+    {
+        synchronized (tasks) {
+            while (true) {
+                Task next = tasks.peek();
+                long now  = System.nanoTime();
+
+                if (next == null) {
+                    tasks.wait();
+                    continue;
+                }
+
+                long wait = Math.max(next.due, notBefore) - now;
+
+                if (wait <= 0) {
+                    running = tasks.poll();
+                    return running;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(tasks, wait);
+            }
+        }
+    }
+
+    /**
+     * Poll the server, or register an update frequency if that does the job.
+     * @param task The task that is due.
+     * @return Factor to stretch the interval until the next poll by.
+     * @throws IOException
+     */
+    private static double fire (Task task) throws IOException
+    {
+        Network network = task.network;
+
+        if (!network.isConnected()) {
+            return 1;
+        }
+
+        Protocol protocol = network.getProtocol();
+        AdminUpdateFrequency registered = network.getUpdateFrequencies().get(task.type);
+
+        /* the server sends the updates itself often enough */
+        if (registered != null && covers(registered, task.interval)) {
+            return 1;
+        }
+
+        /* register where nothing is yet, a slower registration of the user is kept and polled in between */
+        AdminUpdateFrequency freq = serverFrequency(protocol, task.type, task.interval);
+
+        if (registered == null && freq != null) {
+            network.sendAdminUpdateFrequency(task.type, freq);
+            return 1;
+        }
+
+        if (!protocol.isSupported(task.type, AdminUpdateFrequency.ADMIN_FREQUENCY_POLL)) {
+            return 1;
+        }
+
+        network.poll(task.type);
+
+        return stretch(network.getMetrics(), task.type, task.interval);
+    }
+
+    /**
+     * Find an update frequency of the server that replaces polling.
+     * @param protocol The protocol of the server.
+     * @param type The AdminUpdateType to poll.
+     * @param interval Requested time between two polls in nanoseconds.
+     * @return The least frequent periodic frequency that is at least as frequent as
+     *         requested, the automatic frequency, or null if polling is needed.
+     */
+    private static AdminUpdateFrequency serverFrequency (Protocol protocol, AdminUpdateType type, long interval)
+    {
+        if (protocol.isSupported(type, AdminUpdateFrequency.ADMIN_FREQUENCY_AUTOMATIC)) {
+            return AdminUpdateFrequency.ADMIN_FREQUENCY_AUTOMATIC;
+        }
+
+        for (int i = 0; i < PERIODIC.length; i++) {
+            long period = TimeUnit.MILLISECONDS.toNanos(PERIODIC_DAYS[i] * GameSpeedMonitor.NOMINAL_MS_PER_DAY);
+
+            if (period <= interval && protocol.isSupported(type, PERIODIC[i])) {
+                return PERIODIC[i];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if an update frequency delivers updates at least as often as requested.
+     * @param freq The update frequency.
+     * @param interval Requested time between two polls in nanoseconds.
+     * @return true for the automatic frequency and periodic ones not longer than the interval.
+     */
+    private static boolean covers (AdminUpdateFrequency freq, long interval)
+    {
+        if (freq == AdminUpdateFrequency.ADMIN_FREQUENCY_AUTOMATIC) {
+            return true;
+        }
+
+        for (int i = 0; i < PERIODIC.length; i++) {
+            if (PERIODIC[i] == freq) {
+                return TimeUnit.MILLISECONDS.toNanos(PERIODIC_DAYS[i] * GameSpeedMonitor.NOMINAL_MS_PER_DAY) <= interval;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Work out how much to stretch the interval of a connection.
+     * @param metrics The metrics of the connection.
+     * @param type The polled AdminUpdateType.
+     * @param interval Nominal interval in nanoseconds.
+     * @return Factor between 1 and MAX_STRETCH.
+     */
+    private static double stretch (ServerMetrics metrics, AdminUpdateType type, long interval)
+    {
+        double stretch = 1;
+
+        /* nothing changes in a paused game, things change slowly in a slow game */
+        if (metrics.isPaused()) {
+            stretch = PAUSED_STRETCH;
+        } else {
+            double speed = metrics.getGameSpeed().getSpeed();
+
+            if (speed > 0 && speed < 1) {
+                stretch = 1 / speed;
+            }
+        }
+
+        /* back off while the server is slow to answer */
+        long latency = metrics.getPollLatency(type).getLastNanos();
+        if (latency > 0) {
+            stretch = Math.max(stretch, latency / (LATENCY_SHARE * interval));
+        }
+
+        return Math.min(stretch, MAX_STRETCH);
+    }
+}
@@ -72,6 +72,8 @@ public class Protocol
      */
     public boolean isSupported (AdminUpdateType type, AdminUpdateFrequency freq)
     {
-        return supportedFrequencies.get(type).contains(freq);
+        EnumSet<AdminUpdateFrequency> supported = supportedFrequencies.get(type);
+
+        return supported != null && supported.contains(freq);
     }
 }
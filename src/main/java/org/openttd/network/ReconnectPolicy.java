@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.network;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides if and when a lost connection is established again.
+ *
+ * Delays grow exponentially from the initial delay up to the maximum delay.
+ * The actual delay is picked at random between half of that and all of it,
+ * so a fleet of connections to a restarting server does not reconnect in lockstep.
+ */
+public class ReconnectPolicy
+{
+    private final long initialMillis;
+    private final long maxMillis;
+    private final int maxAttempts;
+    private final Random random = new Random();
+
+    /**
+     * Retry forever, starting after 1 second and waiting at most 5 minutes.
+     */
+    public ReconnectPolicy ()
+    {
+        this(1, 300, TimeUnit.SECONDS, 0);
+    }
+
+    /**
+     * @param initialDelay Delay before the first attempt.
+     * @param maxDelay Upper bound of the delay between two attempts.
+     * @param unit Unit of both delays.
+     * @param maxAttempts Number of attempts before giving up, 0 to retry forever.
+     */
+    public ReconnectPolicy (long initialDelay, long maxDelay, TimeUnit unit, int maxAttempts)
+    {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Delays must be positive and initialDelay <= maxDelay");
+        }
+
+        this.initialMillis = unit.toMillis(initialDelay);
+        this.maxMillis     = unit.toMillis(maxDelay);
+        this.maxAttempts   = maxAttempts;
+    }
+
+    /**
+     * @param attempt Number of the upcoming attempt, starting at 1.
+     * @return true if the attempt should be made.
+     */
+    public boolean shouldRetry (int attempt)
+    {
+        return this.maxAttempts == 0 || attempt <= this.maxAttempts;
+    }
+
+    /**
+     * @param attempt Number of the upcoming attempt, starting at 1.
+     * @return Milliseconds to wait before the attempt.
+     */
+    public long getDelay (int attempt)
+    {
+        long delay = this.maxMillis;
+
+        /* initialMillis * 2^(attempt - 1), without overflowing */
+        if (attempt <= 31) {
+            delay = Math.min(this.maxMillis, this.initialMillis << (attempt - 1));
+            delay = (delay < 0) ? this.maxMillis : delay;
+        }
+
+        long half = delay / 2;
+
+        synchronized (this.random) {
+            return half + (long) (this.random.nextDouble() * (delay - half));
+        }
+    }
+}
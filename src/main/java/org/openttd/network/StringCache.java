@@ -0,0 +1,146 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.openttd.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of decoded strings, keyed by their raw bytes.
+ *
+ * Console origins, client and company names and command texts arrive over and
+ * over again. With a cache installed through Network.setStringCache(), repeated
+ * values resolve to one shared String without being decoded again.
+ *
+ * The cache is direct mapped: every hash has exactly one slot and a newer
+ * string replaces an older one. It can be shared by all connections.
+ */
+public class StringCache
+{
+    public static final int DEFAULT_CAPACITY   = 4096;
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    private static class Entry
+    {
+        final int hash;
+        final byte[] bytes;
+        final String value;
+
+        Entry (int hash, byte[] bytes, String value)
+        {
+            this.hash  = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+    }
+
+    /* entries are immutable, racing on a slot just costs a decode */
+    private final Entry[] slots;
+    private final int mask;
+    private final int maxLength;
+
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public StringCache ()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two.
+     * @param maxLength Longer strings (in bytes) are not cached.
+     */
+    public StringCache (int capacity, int maxLength)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots     = new Entry[size];
+        this.mask      = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Look up the string stored in b from start to end, decoding it on a miss.
+     * @param b The buffer.
+     * @param start Index of the first byte.
+     * @param end Index after the last byte.
+     * @return The (possibly shared) String.
+     */
+    protected String get (byte[] b, int start, int end)
+    {
+        int len = end - start;
+
+        if (len > this.maxLength) {
+            return Packet.decodeString(b, start, end);
+        }
+
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + b[i];
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & this.mask;
+        Entry e = this.slots[slot];
+
+        if (e != null && e.hash == hash && equals(e.bytes, b, start, len)) {
+            this.hits.incrementAndGet();
+            return e.value;
+        }
+
+        byte[] bytes = new byte[len];
+        System.arraycopy(b, start, bytes, 0, len);
+
+        String value = Packet.decodeString(b, start, end);
+        this.slots[slot] = new Entry(hash, bytes, value);
+        this.misses.incrementAndGet();
+
+        return value;
+    }
+
+    private static boolean equals (byte[] key, byte[] b, int start, int len)
+    {
+        if (key.length != len) {
+            return false;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (key[i] != b[start + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public long getHits ()
+    {
+        return this.hits.get();
+    }
+
+    public long getMisses ()
+    {
+        return this.misses.get();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (C) 2011 Nathanael Rebsch
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.openttd.network;
+
+/**
+ * Token bucket rate limiter.
+ *
+ * Tokens are added at a fixed rate up to the capacity of the bucket, each
+ * permitted action takes one. Not thread-safe, the owner has to synchronise.
+ */
+public class TokenBucket
+{
+    private final double perNano;
+    private final double capacity;
+
+    private double tokens;
+    private long last;
+
+    /**
+     * Constructor, the bucket starts full.
+     * @param perSecond Tokens added per second.
+     * @param burst Capacity of the bucket.
+     */
+    public TokenBucket (double perSecond, int burst)
+    {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+
+        this.perNano  = perSecond / 1e9;
+        this.capacity = burst;
+        this.tokens   = burst;
+        this.last     = System.nanoTime();
+    }
+
+    /**
+     * Take a token if one is available.
+     * @return true if the action is permitted.
+     */
+    public boolean tryTake ()
+    {
+        refill();
+
+        if (this.tokens < 1) {
+            return false;
+        }
+
+        this.tokens -= 1;
+        return true;
+    }
+
+    /**
+     * @return Nanoseconds until the next token is available, 0 if one is available now.
+     */
+    public long nanosUntilAvailable ()
+    {
+        refill();
+
+        return (this.tokens >= 1) ? 0 : (long) Math.ceil((1 - this.tokens) / this.perNano);
+    }
+
+    /**
+     * @return true if the bucket is full, i.e. it has not been used for a while.
+     */
+    public boolean isFull ()
+    {
+        refill();
+
+        return this.tokens >= this.capacity;
+    }
+
+    private void refill ()
+    {
+        long now = System.nanoTime();
+
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.last) * this.perNano);
+        this.last   = now;
+    }
+}
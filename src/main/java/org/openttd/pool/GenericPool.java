@@ -18,8 +18,10 @@
 
 package org.openttd.pool;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Generic pool handling.
@@ -61,6 +63,14 @@ public abstract class GenericPool<K extends Number, V extends Poolable<K>> imple
         return this.pool.values().iterator();
     }
 
+    /**
+     * @return A copy of the values, safe to iterate while the pool is being modified.
+     */
+    public synchronized List<V> values ()
+    {
+        return new ArrayList<V>(this.pool.values());
+    }
+
     public synchronized V remove (K key)
     {
         return this.pool.remove(key);
@@ -31,6 +31,9 @@ public abstract class Poolable<T extends Number>
 {
     public final T id;
 
+    /** Reconciliation sweep in which the server last confirmed this item, see NetworkClient. */
+    public long generation = 0;
+
     public Poolable (T id)
     {
         this.id = id;